@@ -0,0 +1,155 @@
+package scheduledfilecopier;
+
+import java.io.*;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AdaptiveTuner {
+
+    private static final double IMPROVEMENT = 1.05;
+    private static final double REGRESSION = 0.95;
+    private static final double LATENCY_LIMIT = 4.0;
+
+    private final int maxWorkers;
+    private volatile int workers;
+
+    // Hill-climbing state: the direction the worker count is being probed in
+    private int workerDirection = 1;
+    private double previousRate;
+    private long lastBytes = -1;
+    private long lastTime;
+
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder writeBytes = new LongAdder();
+    private double baselineLatency = Double.MAX_VALUE;
+
+    private double bestRate;
+    private int bestWorkers;
+
+    // Only the worker count is tuned: the copy paths that carry most bytes use fixed buffers
+    // sized for memory, so a tuned chunk size would only ever apply to small files
+    public AdaptiveTuner(int workers, int maxWorkers) {
+        this.maxWorkers = Math.max(1, maxWorkers);
+        this.workers = clamp(workers, 1, this.maxWorkers);
+        this.bestWorkers = this.workers;
+    }
+
+    public static AdaptiveTuner load(File file, String key, int workers, int maxWorkers) {
+        Properties props = new Properties();
+        if (file.isFile()) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                props.load(in);
+                workers = Integer.parseInt(props.getProperty(key + ".workers", Integer.toString(workers)));
+            } catch (IOException | NumberFormatException e) {
+                // Start from the configured settings
+            }
+        }
+        return new AdaptiveTuner(workers, maxWorkers);
+    }
+
+    public synchronized void save(File file, String key) throws IOException {
+        // Nothing was learned if no window carried any data
+        if (bestRate <= 0) return;
+
+        Properties props = new Properties();
+        if (file.isFile()) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                props.load(in);
+            }
+        }
+        props.setProperty(key + ".workers", Integer.toString(bestWorkers));
+        // Left by versions that also tuned the chunk size
+        props.remove(key + ".chunkSize");
+
+        File parent = file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            props.store(out, "Learned copy settings per destination file store");
+        }
+    }
+
+    public int workers() {
+        return workers;
+    }
+
+    public void recordWrite(long bytes, long nanos) {
+        writeBytes.add(bytes);
+        writeNanos.add(nanos);
+    }
+
+    // Called periodically with the run's total byte count; returns true if a setting changed
+    public synchronized boolean tick(long totalBytes, long nowNanos) {
+        if (lastBytes < 0) {
+            lastBytes = totalBytes;
+            lastTime = nowNanos;
+            return false;
+        }
+
+        long bytes = totalBytes - lastBytes;
+        double seconds = (nowNanos - lastTime) / 1e9;
+        lastBytes = totalBytes;
+        lastTime = nowNanos;
+        long sampledBytes = writeBytes.sumThenReset();
+        long sampledNanos = writeNanos.sumThenReset();
+        // Windows spent waiting on retries or scanning say nothing about the settings
+        if (bytes <= 0 || seconds <= 0) return false;
+
+        double rate = bytes / seconds;
+        if (rate > bestRate) {
+            bestRate = rate;
+            bestWorkers = workers;
+        }
+
+        // Multiplicative decrease when the device is saturated: write latency far above
+        // the best seen without any gain in throughput
+        if (sampledBytes > 0) {
+            double latency = (double) sampledNanos / sampledBytes;
+            baselineLatency = Math.min(baselineLatency, latency);
+            if (latency > baselineLatency * LATENCY_LIMIT && rate < previousRate * IMPROVEMENT && workers > 1) {
+                workers = Math.max(1, workers / 2);
+                workerDirection = 1;
+                previousRate = 0;
+                return true;
+            }
+        }
+
+        if (previousRate == 0) {
+            previousRate = rate;
+            return step();
+        }
+
+        if (rate >= previousRate * IMPROVEMENT) {
+            // Still climbing, keep going the same way
+            previousRate = rate;
+            return step();
+        }
+        if (rate < previousRate * REGRESSION) {
+            // Overshot: undo the last step and turn around
+            workers = clamp(workers - workerDirection, 1, maxWorkers);
+            workerDirection = -workerDirection;
+            previousRate = 0;
+            return true;
+        }
+
+        // Plateau: probe the other side
+        workerDirection = -workerDirection;
+        previousRate = rate;
+        return step();
+    }
+
+    private boolean step() {
+        int next = clamp(workers + workerDirection, 1, maxWorkers);
+        if (next == workers) {
+            workerDirection = -workerDirection;
+            return false;
+        }
+        workers = next;
+        return true;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
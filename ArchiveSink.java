@@ -0,0 +1,403 @@
+package scheduledfilecopier;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+// Streams files into rolling archive segments instead of creating one file per source file.
+// Every concurrent writer owns its own segment, and each segment has a sidecar index so a
+// single file can be restored without reading the archive from the start
+public class ArchiveSink implements DestinationSink {
+
+    public enum Format {
+        TAR("Tar archive", ".tar"),
+        ZIP("Zip archive", ".zip"),
+        ZIP_STORE("Zip archive (no compression)", ".zip");
+
+        private final String label;
+        private final String extension;
+
+        Format(String label, String extension) {
+            this.label = label;
+            this.extension = extension;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public static final String INDEX_SUFFIX = ".idx";
+    private static final int BLOCK = 512;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File folder;
+    private final Format format;
+    private final long segmentSize;
+    private final String baseName;
+    private final AtomicInteger segmentCounter = new AtomicInteger();
+    private final Queue<Segment> idle = new ConcurrentLinkedQueue<>();
+    private final List<Segment> open = Collections.synchronizedList(new ArrayList<>());
+    private final List<File> written = Collections.synchronizedList(new ArrayList<>());
+
+    public ArchiveSink(File folder, Format format, long segmentSize) throws IOException {
+        if (!folder.mkdirs() && !folder.isDirectory()) {
+            throw new IOException("Failed to create directory: " + folder.getAbsolutePath());
+        }
+        this.folder = folder;
+        this.format = format;
+        this.segmentSize = segmentSize;
+        this.baseName = "archive-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+    }
+
+    @Override
+    public void add(String path, File source, LongConsumer progress, BooleanSupplier cancelled) throws IOException {
+        // Open the source first, so a locked file fails before anything reaches the archive
+        try (FileChannel input = new FileInputStream(source).getChannel()) {
+            Segment segment = idle.poll();
+            if (segment == null) {
+                segment = openSegment();
+            }
+            try {
+                segment.add(path, input, source.lastModified(), progress, cancelled);
+            } catch (IOException e) {
+                // The entry is incomplete: it stays out of the index and the segment is closed
+                // so the retry lands in a fresh one
+                closeSegment(segment);
+                throw e;
+            }
+
+            if (segment.size() >= segmentSize) {
+                closeSegment(segment);
+            } else {
+                idle.add(segment);
+            }
+        }
+    }
+
+    public List<File> segments() {
+        synchronized (written) {
+            return new ArrayList<>(written);
+        }
+    }
+
+    @Override
+    public String summary() {
+        return "Wrote " + written.size() + " archive segment(s) to " + folder.getPath();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        List<Segment> remaining;
+        synchronized (open) {
+            remaining = new ArrayList<>(open);
+        }
+        for (Segment segment : remaining) {
+            try {
+                closeSegment(segment);
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        idle.clear();
+        if (failure != null) throw failure;
+    }
+
+    private Segment openSegment() throws IOException {
+        File file = new File(folder, String.format("%s-%03d%s", baseName, segmentCounter.incrementAndGet(), format.extension));
+        Segment segment = format == Format.TAR ? new TarSegment(file) : new ZipSegment(file, format == Format.ZIP);
+        open.add(segment);
+        written.add(file);
+        return segment;
+    }
+
+    private void closeSegment(Segment segment) throws IOException {
+        if (open.remove(segment)) {
+            segment.close();
+        }
+    }
+
+    // Looks a file up in the sidecar indexes of an archive folder and writes it to target
+    public static void restore(File folder, String path, File target) throws IOException {
+        File[] indexes = folder.listFiles((dir, name) -> name.endsWith(INDEX_SUFFIX));
+        if (indexes != null) {
+            Arrays.sort(indexes, Comparator.comparing(File::getName).reversed());
+            for (File index : indexes) {
+                String[] entry = findInIndex(index, path);
+                if (entry == null) continue;
+
+                String archiveName = index.getName().substring(0, index.getName().length() - INDEX_SUFFIX.length());
+                File archive = new File(folder, archiveName);
+                long size = Long.parseLong(entry[1]);
+                if (archiveName.endsWith(".tar")) {
+                    try (FileChannel input = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+                         FileChannel output = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                             StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        long offset = Long.parseLong(entry[3]);
+                        long done = 0;
+                        while (done < size) {
+                            long moved = input.transferTo(offset + done, size - done, output);
+                            if (moved <= 0) throw new EOFException("Archive ends inside " + path);
+                            done += moved;
+                        }
+                    }
+                } else {
+                    try (ZipFile zip = new ZipFile(archive);
+                         InputStream in = zip.getInputStream(zip.getEntry(path));
+                         OutputStream out = new FileOutputStream(target)) {
+                        in.transferTo(out);
+                    }
+                }
+                target.setLastModified(Long.parseLong(entry[2]));
+                return;
+            }
+        }
+        throw new FileNotFoundException("Not found in any archive index: " + path);
+    }
+
+    private static String[] findInIndex(File index, String path) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(index), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 4 && fields[0].equals(path)) return fields;
+            }
+        }
+        return null;
+    }
+
+    private abstract static class Segment {
+        final File file;
+        private final BufferedWriter index;
+
+        Segment(File file) throws IOException {
+            this.file = file;
+            this.index = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(file.getPath() + INDEX_SUFFIX)), StandardCharsets.UTF_8));
+        }
+
+        abstract void add(String path, FileChannel input, long lastModified,
+                          LongConsumer progress, BooleanSupplier cancelled) throws IOException;
+
+        abstract long size() throws IOException;
+
+        abstract void finish() throws IOException;
+
+        // Index line: path, size, mtime, offset of the entry's data (tar) or header (zip)
+        void index(String path, long size, long lastModified, long offset) throws IOException {
+            if (path.indexOf('\t') >= 0 || path.indexOf('\n') >= 0) return;
+            index.write(path + "\t" + size + "\t" + lastModified + "\t" + offset);
+            index.newLine();
+        }
+
+        void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    private static class TarSegment extends Segment {
+        private final FileChannel channel;
+
+        TarSegment(File file) throws IOException {
+            super(file);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        }
+
+        @Override
+        void add(String path, FileChannel input, long lastModified,
+                 LongConsumer progress, BooleanSupplier cancelled) throws IOException {
+            long size = input.size();
+            writeHeaders(path, size, lastModified);
+            long dataOffset = channel.position();
+
+            long done = 0;
+            try {
+                while (done < size) {
+                    if (cancelled.getAsBoolean()) throw new IOException("Copy cancelled");
+                    long moved = input.transferTo(done, Math.min(BUFFER_SIZE, size - done), channel);
+                    if (moved <= 0) throw new IOException("File shrank while being archived: " + path);
+                    done += moved;
+                    progress.accept(moved);
+                }
+            } finally {
+                // Keep the tar structure valid even if the entry is cut short
+                long end = dataOffset + size;
+                if (channel.position() < end) {
+                    channel.write(ByteBuffer.allocate(1), end - 1);
+                    channel.position(end);
+                }
+                pad();
+            }
+            index(path, size, lastModified, dataOffset);
+        }
+
+        private void writeHeaders(String path, long size, long lastModified) throws IOException {
+            byte[] name = path.getBytes(StandardCharsets.UTF_8);
+            boolean needsPax = name.length > 100 || name.length != path.length() || size > 077777777777L;
+            if (needsPax) {
+                // POSIX extended header for long or non-ASCII names and files over 8 GB
+                byte[] records = (paxRecord("path", path) + paxRecord("size", Long.toString(size)))
+                    .getBytes(StandardCharsets.UTF_8);
+                writeBlock(header("PaxHeaders/" + Math.abs(path.hashCode()), records.length, lastModified, 'x'));
+                channel.write(ByteBuffer.wrap(records));
+                pad();
+            }
+            writeBlock(header(needsPax ? asciiName(path) : path, needsPax ? 0 : size, lastModified, '0'));
+        }
+
+        private static String paxRecord(String key, String value) {
+            String body = " " + key + "=" + value + "\n";
+            int bodyLength = body.getBytes(StandardCharsets.UTF_8).length;
+            int length = bodyLength + 1;
+            while (Integer.toString(length).length() + bodyLength != length) {
+                length = Integer.toString(length).length() + bodyLength;
+            }
+            return length + body;
+        }
+
+        private static String asciiName(String path) {
+            String ascii = path.replaceAll("[^\\x20-\\x7e]", "_");
+            return ascii.length() > 100 ? ascii.substring(ascii.length() - 100) : ascii;
+        }
+
+        private static ByteBuffer header(String name, long size, long lastModified, char type) {
+            byte[] block = new byte[BLOCK];
+            put(block, 0, 100, name.getBytes(StandardCharsets.UTF_8));
+            octal(block, 100, 8, 0644);
+            octal(block, 108, 8, 0);
+            octal(block, 116, 8, 0);
+            octal(block, 124, 12, size);
+            octal(block, 136, 12, lastModified / 1000);
+            Arrays.fill(block, 148, 156, (byte) ' ');
+            block[156] = (byte) type;
+            put(block, 257, 6, "ustar\0".getBytes(StandardCharsets.US_ASCII));
+            put(block, 263, 2, "00".getBytes(StandardCharsets.US_ASCII));
+
+            long checksum = 0;
+            for (byte b : block) checksum += b & 0xff;
+            octal(block, 148, 7, checksum);
+            return ByteBuffer.wrap(block);
+        }
+
+        private static void put(byte[] block, int offset, int length, byte[] value) {
+            System.arraycopy(value, 0, block, offset, Math.min(length, value.length));
+        }
+
+        private static void octal(byte[] block, int offset, int length, long value) {
+            String digits = Long.toOctalString(value);
+            while (digits.length() < length - 1) digits = "0" + digits;
+            put(block, offset, length - 1, digits.getBytes(StandardCharsets.US_ASCII));
+            block[offset + length - 1] = 0;
+        }
+
+        private void writeBlock(ByteBuffer block) throws IOException {
+            while (block.hasRemaining()) channel.write(block);
+        }
+
+        private void pad() throws IOException {
+            long remainder = channel.position() % BLOCK;
+            if (remainder != 0) {
+                writeBlock(ByteBuffer.allocate((int) (BLOCK - remainder)));
+            }
+        }
+
+        @Override
+        long size() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        void finish() throws IOException {
+            try {
+                writeBlock(ByteBuffer.allocate(BLOCK * 2));
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static class ZipSegment extends Segment {
+        private final CountingOutputStream counter;
+        private final ZipOutputStream zip;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        ZipSegment(File file, boolean compress) throws IOException {
+            super(file);
+            counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            zip = new ZipOutputStream(counter, StandardCharsets.UTF_8);
+            // Stored entries need their CRC up front, so "no compression" is deflate level 0
+            zip.setLevel(compress ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+        }
+
+        @Override
+        void add(String path, FileChannel input, long lastModified,
+                 LongConsumer progress, BooleanSupplier cancelled) throws IOException {
+            long headerOffset = counter.count;
+            ZipEntry entry = new ZipEntry(path);
+            entry.setTime(lastModified);
+            zip.putNextEntry(entry);
+
+            ByteBuffer view = ByteBuffer.wrap(buffer);
+            long size = 0;
+            int read;
+            while ((read = input.read(view)) > 0) {
+                if (cancelled.getAsBoolean()) throw new IOException("Copy cancelled");
+                zip.write(buffer, 0, read);
+                size += read;
+                progress.accept(read);
+                view.clear();
+            }
+            zip.closeEntry();
+            index(path, size, lastModified, headerOffset);
+        }
+
+        @Override
+        long size() {
+            return counter.count;
+        }
+
+        @Override
+        void finish() throws IOException {
+            zip.close();
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Read-only btrfs snapshot of the subvolume holding the source. Snapshots are kept in a folder at
+// the top of the subvolume, since a snapshot has to be made inside the same filesystem
+public class BtrfsSnapshotProvider implements SnapshotProvider {
+
+    // Every btrfs subvolume root has this inode number
+    private static final long SUBVOLUME_ROOT_INODE = 256;
+
+    @Override
+    public String name() {
+        return "btrfs";
+    }
+
+    @Override
+    public boolean supports(File source) {
+        try {
+            return Files.getFileStore(source.toPath()).type().equals("btrfs");
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Snapshot create(File source, JobControl control) throws IOException {
+        Path live = source.toPath().toRealPath();
+        Path subvolume = subvolumeOf(live);
+        Path snapshots = subvolume.resolve(SNAPSHOT_FOLDER);
+        Files.createDirectories(snapshots);
+        Path snapshot = snapshots.resolve(SnapshotProvider.snapshotName());
+
+        SnapshotProvider.run(control, "btrfs", "subvolume", "snapshot", "-r", subvolume.toString(), snapshot.toString());
+        File root = snapshot.resolve(subvolume.relativize(live)).toFile();
+        return new Snapshot() {
+            @Override
+            public File root() {
+                return root;
+            }
+
+            @Override
+            public void close() throws IOException {
+                SnapshotProvider.run("btrfs", "subvolume", "delete", snapshot.toString());
+            }
+        };
+    }
+
+    private static Path subvolumeOf(Path path) throws IOException {
+        Path current = Files.isDirectory(path) ? path : path.getParent();
+        while (((Number) Files.getAttribute(current, "unix:ino")).longValue() != SUBVOLUME_ROOT_INODE) {
+            current = current.getParent();
+            if (current == null) {
+                throw new IOException("No btrfs subvolume found above " + path);
+            }
+        }
+        return current;
+    }
+}
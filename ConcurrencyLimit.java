@@ -0,0 +1,63 @@
+package scheduledfilecopier;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A semaphore whose number of permits can be changed while holders are active
+public class ConcurrencyLimit {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private int limit;
+    private int active;
+
+    public ConcurrencyLimit(int limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    public boolean tryAcquire(long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (active >= limit) {
+                if (remaining <= 0) return false;
+                remaining = available.awaitNanos(remaining);
+            }
+            active++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            active--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lowering the limit never interrupts holders; it takes effect as they release
+    public void setLimit(int limit) {
+        lock.lock();
+        try {
+            this.limit = Math.max(1, limit);
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
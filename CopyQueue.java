@@ -0,0 +1,146 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class CopyQueue {
+
+    public static final int PRIORITY_CLASS = 0;
+    public static final int NORMAL_CLASS = 1;
+
+    public enum OrderingPolicy {
+        LISTING("Listing order"),
+        LARGEST_FIRST("Largest files first"),
+        SMALLEST_FIRST("Smallest files first");
+
+        private final String label;
+
+        OrderingPolicy(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public static class CopyTask {
+        final File source;
+        final File dest;
+        final long size;
+        final int priorityClass;
+        final long sequence;
+
+        CopyTask(File source, File dest, long size, int priorityClass, long sequence) {
+            this.source = source;
+            this.dest = dest;
+            this.size = size;
+            this.priorityClass = priorityClass;
+            this.sequence = sequence;
+        }
+    }
+
+    // Tasks live in primitive arrays with their paths in a PathStore; a CopyTask with File
+    // objects is only built when a worker takes it. The heap holds task indexes
+    private final PathStore paths = new PathStore();
+    private final OrderingPolicy policy;
+    private int[] sources = new int[1024];
+    private int[] dests = new int[1024];
+    private long[] sizes = new long[1024];
+    private byte[] classes = new byte[1024];
+    private int[] heap = new int[1024];
+    private int heapSize;
+    private int added;
+
+    public CopyQueue(OrderingPolicy policy) {
+        this.policy = policy;
+    }
+
+    // Lower priority classes are always dispatched first; the policy only
+    // orders tasks within a class, and listing order breaks ties.
+    private boolean before(int a, int b) {
+        if (classes[a] != classes[b]) return classes[a] < classes[b];
+        switch (policy) {
+            case LARGEST_FIRST:
+                if (sizes[a] != sizes[b]) return sizes[a] > sizes[b];
+                break;
+            case SMALLEST_FIRST:
+                if (sizes[a] != sizes[b]) return sizes[a] < sizes[b];
+                break;
+            default:
+                break;
+        }
+        return a < b;
+    }
+
+    public void add(File source, File dest, long size, int priorityClass) {
+        int sourceId = paths.add(source);
+        int destId = paths.add(dest);
+        synchronized (this) {
+            if (added == sources.length) {
+                int capacity = added + (added >> 1);
+                sources = Arrays.copyOf(sources, capacity);
+                dests = Arrays.copyOf(dests, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                classes = Arrays.copyOf(classes, capacity);
+            }
+            int task = added++;
+            sources[task] = sourceId;
+            dests[task] = destId;
+            sizes[task] = size;
+            classes[task] = (byte) priorityClass;
+
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heapSize + (heapSize >> 1));
+            }
+            int i = heapSize++;
+            while (i > 0 && before(task, heap[(i - 1) / 2])) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            heap[i] = task;
+        }
+    }
+
+    public CopyTask poll() {
+        int task;
+        int sourceId;
+        int destId;
+        long size;
+        int priorityClass;
+        synchronized (this) {
+            if (heapSize == 0) return null;
+            task = heap[0];
+            int last = heap[--heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && before(heap[child + 1], heap[child])) child++;
+                if (!before(heap[child], last)) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            sourceId = sources[task];
+            destId = dests[task];
+            size = sizes[task];
+            priorityClass = classes[task];
+        }
+        return new CopyTask(paths.toFile(sourceId), paths.toFile(destId), size, priorityClass, task);
+    }
+
+    // Called once the scan is done; later additions still work, they just don't share folders
+    public void forgetDirectories() {
+        paths.forgetDirectories();
+    }
+
+    public synchronized void clear() {
+        heapSize = 0;
+    }
+
+    public synchronized int size() {
+        return heapSize;
+    }
+}
@@ -0,0 +1,31 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+
+// One way of copying a file into a folder destination. FileCopier registers its own copy paths
+// under the names copy rules use; more can be added with FileCopier.registerCopyStrategy
+public interface CopyStrategy {
+
+    String name();
+
+    void copy(File source, File dest) throws IOException;
+
+    interface Copy {
+        void copy(File source, File dest) throws IOException;
+    }
+
+    static CopyStrategy of(String name, Copy copy) {
+        return new CopyStrategy() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public void copy(File source, File dest) throws IOException {
+                copy.copy(source, dest);
+            }
+        };
+    }
+}
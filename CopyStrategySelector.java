@@ -0,0 +1,343 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+// Picks a CopyStrategy for each file from an ordered list of rules: the first rule that matches the
+// file and names an available strategy decides. A rule naming several strategies is probed when
+// probing is on: its first files are spread over the candidates, and the fastest is kept for that
+// pair of file stores and remembered for later runs
+public class CopyStrategySelector {
+
+    public static final int PROBE_FILES = 3;
+
+    public static class FileTraits {
+        final long size;
+        final String extension;
+        final String sourceStore;
+        final String destStore;
+        final boolean destExists;
+        final BooleanSupplier locked;
+
+        public FileTraits(long size, String name, String sourceStore, String destStore, boolean destExists,
+                          BooleanSupplier locked) {
+            int dot = name.lastIndexOf('.');
+            this.size = size;
+            this.extension = dot >= 0 ? name.substring(dot).toLowerCase() : "";
+            this.sourceStore = sourceStore;
+            this.destStore = destStore;
+            this.destExists = destExists;
+            this.locked = locked;
+        }
+    }
+
+    // Conditions, all of which must hold, then the strategies to use:
+    //   size>=64M size<1G ext=.iso,.vhdx src=nfs dst=cifs locked !locked exists !exists -> ranges|direct
+    // src and dst are file store types; exists means the destination file is already there
+    public static class Rule {
+        private final String text;
+        private long minSize;
+        private long maxSize = Long.MAX_VALUE;
+        private final Set<String> extensions = new HashSet<>();
+        private String sourceStore;
+        private String destStore;
+        private Boolean locked;
+        private Boolean destExists;
+        private final List<String> strategies = new ArrayList<>();
+
+        private Rule(String text) {
+            this.text = text;
+        }
+
+        public static Rule parse(String text) {
+            int arrow = text.indexOf("->");
+            if (arrow < 0) {
+                throw new IllegalArgumentException("Copy rule has no '-> strategy': " + text);
+            }
+            Rule rule = new Rule(text.trim().replaceAll("\\s+", " "));
+            for (String name : text.substring(arrow + 2).split("\\|")) {
+                if (!name.trim().isEmpty()) rule.strategies.add(name.trim().toLowerCase());
+            }
+            if (rule.strategies.isEmpty()) {
+                throw new IllegalArgumentException("Copy rule names no strategy: " + text);
+            }
+
+            for (String condition : text.substring(0, arrow).trim().split("\\s+")) {
+                if (condition.isEmpty()) continue;
+                if (condition.startsWith("size>=")) {
+                    rule.minSize = parseSize(condition.substring(6));
+                } else if (condition.startsWith("size>")) {
+                    rule.minSize = parseSize(condition.substring(5)) + 1;
+                } else if (condition.startsWith("size<=")) {
+                    rule.maxSize = parseSize(condition.substring(6));
+                } else if (condition.startsWith("size<")) {
+                    rule.maxSize = parseSize(condition.substring(5)) - 1;
+                } else if (condition.startsWith("ext=")) {
+                    for (String extension : condition.substring(4).split(",")) {
+                        String lower = extension.trim().toLowerCase();
+                        rule.extensions.add(lower.startsWith(".") ? lower : "." + lower);
+                    }
+                } else if (condition.startsWith("src=")) {
+                    rule.sourceStore = condition.substring(4).toLowerCase();
+                } else if (condition.startsWith("dst=")) {
+                    rule.destStore = condition.substring(4).toLowerCase();
+                } else if (condition.equals("locked") || condition.equals("!locked")) {
+                    rule.locked = !condition.startsWith("!");
+                } else if (condition.equals("exists") || condition.equals("!exists")) {
+                    rule.destExists = !condition.startsWith("!");
+                } else {
+                    throw new IllegalArgumentException("Unknown condition '" + condition + "' in copy rule: " + text);
+                }
+            }
+            return rule;
+        }
+
+        boolean matches(FileTraits file) {
+            if (file.size < minSize || file.size > maxSize) return false;
+            if (!extensions.isEmpty() && !extensions.contains(file.extension)) return false;
+            if (sourceStore != null && !sourceStore.equalsIgnoreCase(file.sourceStore)) return false;
+            if (destStore != null && !destStore.equalsIgnoreCase(file.destStore)) return false;
+            if (destExists != null && destExists != file.destExists) return false;
+            // Last, since finding out whether a file is locked means opening it
+            return locked == null || locked == file.locked.getAsBoolean();
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+
+        private static long parseSize(String value) {
+            String upper = value.trim().toUpperCase();
+            long unit = 1;
+            char last = upper.isEmpty() ? ' ' : upper.charAt(upper.length() - 1);
+            if ("KMGT".indexOf(last) >= 0) {
+                unit = 1L << (10 * ("KMGT".indexOf(last) + 1));
+                upper = upper.substring(0, upper.length() - 1);
+            }
+            try {
+                return Long.parseLong(upper) * unit;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid size in copy rule: " + value);
+            }
+        }
+    }
+
+    // A strategy chosen for one file; copying through it keeps the metrics and any probe up to date
+    public class Choice {
+        private final CopyStrategy strategy;
+        private final Probe probe;
+
+        Choice(CopyStrategy strategy, Probe probe) {
+            this.strategy = strategy;
+            this.probe = probe;
+        }
+
+        public String name() {
+            return strategy.name();
+        }
+
+        public void copy(File source, File dest) throws IOException {
+            long size = source.length();
+            long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                strategy.copy(source, dest);
+                succeeded = true;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                Metrics total = metrics.computeIfAbsent(strategy.name(), k -> new Metrics());
+                if (succeeded) {
+                    total.files.increment();
+                    total.bytes.add(size);
+                    total.nanos.add(nanos);
+                } else {
+                    total.failures.increment();
+                }
+                if (probe != null) {
+                    probe.finish(strategy.name(), size, nanos, succeeded);
+                }
+            }
+        }
+    }
+
+    private static class Metrics {
+        final LongAdder files = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder failures = new LongAdder();
+    }
+
+    // Samples per candidate: files, bytes, nanoseconds and copies still running
+    private class Probe {
+        private final String key;
+        private final Map<String, long[]> samples = new LinkedHashMap<>();
+        private String winner;
+
+        Probe(String key, List<CopyStrategy> candidates) {
+            this.key = key;
+            for (CopyStrategy candidate : candidates) {
+                samples.put(candidate.name(), new long[4]);
+            }
+        }
+
+        synchronized CopyStrategy next() {
+            if (winner != null) return strategies.get(winner);
+            String least = null;
+            for (Map.Entry<String, long[]> sample : samples.entrySet()) {
+                long started = sample.getValue()[0] + sample.getValue()[3];
+                if (least == null || started < samples.get(least)[0] + samples.get(least)[3]) {
+                    least = sample.getKey();
+                }
+            }
+            samples.get(least)[3]++;
+            return strategies.get(least);
+        }
+
+        synchronized void finish(String name, long bytes, long nanos, boolean succeeded) {
+            long[] sample = samples.get(name);
+            if (sample == null || winner != null) return;
+            sample[3]--;
+            if (!succeeded) {
+                // A strategy that fails here is not a candidate for these file stores
+                samples.remove(name);
+            } else {
+                sample[0]++;
+                sample[1] += bytes;
+                sample[2] += nanos;
+            }
+            if (samples.isEmpty()) {
+                winner = fallback.name();
+                return;
+            }
+            for (long[] candidate : samples.values()) {
+                if (candidate[0] < PROBE_FILES) return;
+            }
+
+            StringBuilder rates = new StringBuilder();
+            double bestRate = -1;
+            for (Map.Entry<String, long[]> candidate : samples.entrySet()) {
+                double rate = candidate.getValue()[1] * 1e9 / Math.max(1, candidate.getValue()[2]);
+                rates.append(rates.length() > 0 ? ", " : "").append(candidate.getKey()).append(" ")
+                    .append(FileCopier.formatSize((long) rate)).append("/s");
+                if (rate > bestRate) {
+                    bestRate = rate;
+                    winner = candidate.getKey();
+                }
+            }
+            winners.put(key, winner);
+            learned = true;
+            log.accept("Fastest copy method for " + key + ": " + winner + " (" + rates + ")");
+        }
+    }
+
+    private final List<Rule> rules;
+    private final Map<String, CopyStrategy> strategies;
+    private final CopyStrategy fallback;
+    private final boolean probing;
+    private final Consumer<String> log;
+    private final Map<String, String> winners = new ConcurrentHashMap<>();
+    private final Map<String, Probe> probes = new HashMap<>();
+    private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+    private volatile boolean learned;
+
+    public CopyStrategySelector(List<Rule> rules, Map<String, CopyStrategy> strategies, CopyStrategy fallback,
+                                boolean probing, Consumer<String> log) {
+        this.rules = rules;
+        this.strategies = strategies;
+        this.fallback = fallback;
+        this.probing = probing;
+        this.log = log;
+    }
+
+    public Choice select(FileTraits file) {
+        for (Rule rule : rules) {
+            if (!rule.matches(file)) continue;
+            List<CopyStrategy> candidates = new ArrayList<>();
+            for (String name : rule.strategies) {
+                CopyStrategy strategy = strategies.get(name);
+                if (strategy != null) candidates.add(strategy);
+            }
+            if (candidates.isEmpty()) continue;
+            if (candidates.size() == 1 || !probing) {
+                return new Choice(candidates.get(0), null);
+            }
+
+            String key = "'" + rule + "' from " + file.sourceStore + " to " + file.destStore;
+            String remembered = winners.get(key);
+            if (remembered != null && strategies.containsKey(remembered)) {
+                return new Choice(strategies.get(remembered), null);
+            }
+            Probe probe;
+            synchronized (probes) {
+                probe = probes.computeIfAbsent(key, k -> new Probe(k, candidates));
+            }
+            return new Choice(probe.next(), probe);
+        }
+        return new Choice(fallback, null);
+    }
+
+    public void logSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Metrics> entry : metrics.entrySet()) {
+            Metrics total = entry.getValue();
+            long files = total.files.sum();
+            summary.append(summary.length() > 0 ? "; " : "").append(entry.getKey()).append(" ")
+                .append(files).append(" file(s), ").append(FileCopier.formatSize(total.bytes.sum()));
+            if (files > 0) {
+                // Time is summed over every copy, so this is the rate of one copy at a time
+                summary.append(" at ").append(FileCopier.formatSize((long) (total.bytes.sum() * 1e9
+                    / Math.max(1, total.nanos.sum())))).append("/s each");
+            }
+            if (total.failures.sum() > 0) {
+                summary.append(", ").append(total.failures.sum()).append(" failed");
+            }
+        }
+        if (summary.length() > 0) {
+            log.accept("Copy methods: " + summary);
+        }
+    }
+
+    public void load(File file) {
+        if (!file.isFile()) return;
+        Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IOException e) {
+            // Probe again
+            return;
+        }
+        for (String key : props.stringPropertyNames()) {
+            winners.put(key, props.getProperty(key));
+        }
+    }
+
+    public void save(File file) throws IOException {
+        // Nothing new to remember unless a probe finished
+        if (!learned) return;
+
+        Properties props = new Properties();
+        props.putAll(winners);
+        File parent = file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            props.store(out, "Fastest copy method per copy rule and pair of file stores");
+        }
+    }
+}
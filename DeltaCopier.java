@@ -0,0 +1,426 @@
+package scheduledfilecopier;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+public class DeltaCopier {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final int SIGNATURE_MAGIC = 0x46435347;
+    private static final int DIGEST_LENGTH = 16;
+
+    private final int blockSize;
+    private final BooleanSupplier cancelled;
+    private final LongConsumer progress;
+
+    private static class Signatures {
+        final int[] weak;
+        final byte[] strong;
+
+        Signatures(int blockCount) {
+            weak = new int[blockCount];
+            strong = new byte[blockCount * DIGEST_LENGTH];
+        }
+    }
+
+    private static class Op {
+        final boolean fromDest;
+        final long sourceOffset;
+        final long destOffset;
+        long length;
+
+        Op(boolean fromDest, long sourceOffset, long destOffset, long length) {
+            this.fromDest = fromDest;
+            this.sourceOffset = sourceOffset;
+            this.destOffset = destOffset;
+            this.length = length;
+        }
+    }
+
+    public DeltaCopier(int blockSize, BooleanSupplier cancelled, LongConsumer progress) {
+        this.blockSize = blockSize;
+        this.cancelled = cancelled;
+        this.progress = progress;
+    }
+
+    // Returns the number of bytes written to the destination. A cancel throws
+    // InterruptedIOException, leaving the destination either untouched or marked out of date
+    public long copy(File source, File dest, File signatureFile) throws IOException {
+        Signatures destSignatures = loadSignatures(signatureFile, dest);
+        if (destSignatures == null) {
+            destSignatures = computeSignatures(dest);
+        }
+
+        long sourceSize = source.length();
+        Signatures newSignatures = new Signatures((int) (sourceSize / blockSize));
+        List<Op> plan = buildPlan(source, sourceSize, destSignatures, newSignatures);
+
+        long written;
+        if (isInPlace(plan)) {
+            // The old signatures stop describing the file with the first patched byte
+            if (signatureFile != null) {
+                Files.deleteIfExists(signatureFile.toPath());
+            }
+            written = applyInPlace(source, dest, sourceSize, plan);
+        } else {
+            written = applyToTempFile(source, dest, sourceSize, plan);
+        }
+
+        saveSignatures(signatureFile, dest, newSignatures);
+        return written;
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled.getAsBoolean()) {
+            throw new InterruptedIOException("Delta copy cancelled");
+        }
+    }
+
+    private List<Op> buildPlan(File source, long sourceSize, Signatures destSignatures,
+                               Signatures newSignatures) throws IOException {
+        Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+        for (int i = 0; i < destSignatures.weak.length; i++) {
+            blocksByWeak.computeIfAbsent(destSignatures.weak[i], k -> new ArrayList<>(1)).add(i);
+        }
+
+        List<Op> plan = new ArrayList<>();
+        MessageDigest digest = md5();
+        AlignedSigner signer = new AlignedSigner(newSignatures);
+        byte[] strong = new byte[DIGEST_LENGTH];
+
+        try (InputStream in = new FileInputStream(source)) {
+            SlidingBuffer window = new SlidingBuffer(in, Math.max(4 * blockSize, 4 * 1024 * 1024), signer);
+            long position = 0;
+            long literalStart = 0;
+            long unreported = 0;
+            int a = 0;
+            int b = 0;
+            boolean rollingValid = false;
+
+            while (position + blockSize <= sourceSize) {
+                checkCancelled();
+                if (unreported >= blockSize) {
+                    progress.accept(unreported);
+                    unreported = 0;
+                }
+
+                window.ensure(position, position + blockSize + 1, sourceSize);
+                if (!rollingValid) {
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < blockSize; i++) {
+                        a = (a + window.get(position + i)) & 0xffff;
+                        b = (b + a) & 0xffff;
+                    }
+                    rollingValid = true;
+                }
+
+                int matched = -1;
+                List<Integer> candidates = blocksByWeak.get(a | (b << 16));
+                if (candidates != null) {
+                    digest.update(window.array(), window.offsetOf(position), blockSize);
+                    digestInto(digest, strong);
+                    for (int candidate : candidates) {
+                        if (Arrays.equals(strong, 0, DIGEST_LENGTH, destSignatures.strong,
+                                candidate * DIGEST_LENGTH, (candidate + 1) * DIGEST_LENGTH)) {
+                            matched = candidate;
+                            // Prefer the block at the same offset so the file can be patched in place
+                            if ((long) candidate * blockSize == position) break;
+                        }
+                    }
+                }
+
+                if (matched >= 0) {
+                    addOp(plan, false, literalStart, literalStart, position - literalStart);
+                    addOp(plan, true, position, (long) matched * blockSize, blockSize);
+                    position += blockSize;
+                    literalStart = position;
+                    rollingValid = false;
+                    unreported += blockSize;
+                } else if (position + blockSize < sourceSize) {
+                    int outgoing = window.get(position);
+                    int incoming = window.get(position + blockSize);
+                    a = (a - outgoing + incoming) & 0xffff;
+                    b = (b - blockSize * outgoing + a) & 0xffff;
+                    position++;
+                    unreported++;
+                } else {
+                    position++;
+                    unreported++;
+                }
+            }
+
+            window.drain();
+            addOp(plan, false, literalStart, literalStart, sourceSize - literalStart);
+            progress.accept(unreported + Math.max(0, sourceSize - position));
+        }
+        return plan;
+    }
+
+    private void addOp(List<Op> plan, boolean fromDest, long sourceOffset, long destOffset, long length) {
+        if (length <= 0) return;
+        if (!plan.isEmpty()) {
+            Op last = plan.get(plan.size() - 1);
+            boolean contiguous = last.fromDest == fromDest
+                && last.sourceOffset + last.length == sourceOffset
+                && (!fromDest || last.destOffset + last.length == destOffset);
+            if (contiguous) {
+                last.length += length;
+                return;
+            }
+        }
+        plan.add(new Op(fromDest, sourceOffset, destOffset, length));
+    }
+
+    private boolean isInPlace(List<Op> plan) {
+        // Patching in place is only safe when no reused block has moved
+        for (Op op : plan) {
+            if (op.fromDest && op.destOffset != op.sourceOffset) return false;
+        }
+        return true;
+    }
+
+    private long applyInPlace(File source, File dest, long sourceSize, List<Op> plan) throws IOException {
+        long written = 0;
+        boolean complete = false;
+        try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel destChannel = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE)) {
+            for (Op op : plan) {
+                checkCancelled();
+                if (op.fromDest) continue;
+                written += transfer(sourceChannel, op.sourceOffset, op.length, destChannel, op.sourceOffset);
+            }
+            if (destChannel.size() > sourceSize) {
+                destChannel.truncate(sourceSize);
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                // Half patched at full size: an mtime no source has keeps it from passing as current
+                dest.setLastModified(0);
+            }
+        }
+        return written;
+    }
+
+    private long applyToTempFile(File source, File dest, long sourceSize, List<Op> plan) throws IOException {
+        File tempFile = new File(dest.getParentFile(), dest.getName() + ".delta");
+        boolean complete = false;
+        try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel oldChannel = FileChannel.open(dest.toPath(), StandardOpenOption.READ);
+             FileChannel tempChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (Op op : plan) {
+                checkCancelled();
+                FileChannel from = op.fromDest ? oldChannel : sourceChannel;
+                long fromOffset = op.fromDest ? op.destOffset : op.sourceOffset;
+                position += transfer(from, fromOffset, op.length, tempChannel, position);
+            }
+            complete = position == sourceSize;
+        } finally {
+            if (!complete) {
+                tempFile.delete();
+            }
+        }
+
+        Files.move(tempFile.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return sourceSize;
+    }
+
+    private long transfer(FileChannel from, long fromOffset, long length, FileChannel to, long toOffset) throws IOException {
+        long done = 0;
+        while (done < length) {
+            to.position(toOffset + done);
+            long transferred = from.transferTo(fromOffset + done, length - done, to);
+            if (transferred <= 0) {
+                throw new IOException("Unexpected end of file during delta copy");
+            }
+            done += transferred;
+        }
+        return done;
+    }
+
+    private Signatures computeSignatures(File file) throws IOException {
+        Signatures signatures = new Signatures((int) (file.length() / blockSize));
+        AlignedSigner signer = new AlignedSigner(signatures);
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                checkCancelled();
+                signer.update(buffer, 0, length);
+            }
+        }
+        return signatures;
+    }
+
+    private Signatures loadSignatures(File signatureFile, File dest) {
+        if (signatureFile == null || !signatureFile.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(signatureFile)))) {
+            // Only trust signatures that were recorded against this exact destination file
+            if (in.readInt() != SIGNATURE_MAGIC || in.readInt() != blockSize
+                    || in.readLong() != dest.length() || in.readLong() != dest.lastModified()) {
+                return null;
+            }
+            Signatures signatures = new Signatures(in.readInt());
+            for (int i = 0; i < signatures.weak.length; i++) {
+                signatures.weak[i] = in.readInt();
+            }
+            in.readFully(signatures.strong);
+            return signatures;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void saveSignatures(File signatureFile, File dest, Signatures signatures) throws IOException {
+        if (signatureFile == null) return;
+        File parent = signatureFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(signatureFile)))) {
+            out.writeInt(SIGNATURE_MAGIC);
+            out.writeInt(blockSize);
+            out.writeLong(dest.length());
+            out.writeLong(dest.lastModified());
+            out.writeInt(signatures.weak.length);
+            for (int weak : signatures.weak) {
+                out.writeInt(weak);
+            }
+            out.write(signatures.strong);
+        }
+    }
+
+    // For a destination whose modification time was set after the copy, such as to the source's: the
+    // signatures still describe its content, so they are stamped with the new time to stay usable
+    public static void restampSignatures(File signatureFile, File dest) throws IOException {
+        if (signatureFile == null || !signatureFile.isFile()) return;
+        try (RandomAccessFile file = new RandomAccessFile(signatureFile, "rw")) {
+            if (file.readInt() != SIGNATURE_MAGIC) return;
+            file.readInt();
+            if (file.readLong() != dest.length()) return;
+            file.writeLong(dest.lastModified());
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    private static void digestInto(MessageDigest digest, byte[] target) {
+        try {
+            digest.digest(target, 0, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Computes weak and strong checksums of every full block as bytes stream past
+    private class AlignedSigner {
+        private final Signatures signatures;
+        private final MessageDigest digest = md5();
+        private int block;
+        private int filled;
+        private int a;
+        private int b;
+
+        AlignedSigner(Signatures signatures) {
+            this.signatures = signatures;
+        }
+
+        void update(byte[] data, int offset, int length) {
+            int end = offset + length;
+            while (offset < end && block < signatures.weak.length) {
+                int take = Math.min(blockSize - filled, end - offset);
+                digest.update(data, offset, take);
+                for (int i = offset; i < offset + take; i++) {
+                    a = (a + (data[i] & 0xff)) & 0xffff;
+                    b = (b + a) & 0xffff;
+                }
+                offset += take;
+                filled += take;
+
+                if (filled == blockSize) {
+                    signatures.weak[block] = a | (b << 16);
+                    byte[] strong = new byte[DIGEST_LENGTH];
+                    digestInto(digest, strong);
+                    System.arraycopy(strong, 0, signatures.strong, block * DIGEST_LENGTH, DIGEST_LENGTH);
+                    block++;
+                    filled = 0;
+                    a = 0;
+                    b = 0;
+                }
+            }
+        }
+    }
+
+    // Read-ahead window over the source that only ever moves forward
+    private static class SlidingBuffer {
+        private final InputStream in;
+        private final byte[] buffer;
+        private final AlignedSigner signer;
+        private long base;
+        private int length;
+
+        SlidingBuffer(InputStream in, int capacity, AlignedSigner signer) {
+            this.in = in;
+            this.buffer = new byte[capacity];
+            this.signer = signer;
+        }
+
+        void ensure(long start, long end, long fileSize) throws IOException {
+            end = Math.min(end, fileSize);
+            if (end <= base + length) return;
+
+            int keep = (int) (base + length - start);
+            System.arraycopy(buffer, (int) (start - base), buffer, 0, keep);
+            base = start;
+            length = keep;
+            while (base + length < fileSize && length < buffer.length) {
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) break;
+                signer.update(buffer, length, read);
+                length += read;
+            }
+            if (base + length < end) {
+                throw new IOException("Source file shrank during delta copy");
+            }
+        }
+
+        void drain() throws IOException {
+            // Let the signer see the remainder of the file past the last window
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) > 0) {
+                signer.update(buffer, 0, read);
+                base += length;
+                length = 0;
+            }
+        }
+
+        int get(long position) {
+            return buffer[(int) (position - base)] & 0xff;
+        }
+
+        byte[] array() {
+            return buffer;
+        }
+
+        int offsetOf(long position) {
+            return (int) (position - base);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package scheduledfilecopier;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+// A destination that receives whole files by relative path instead of being a folder on disk,
+// e.g. archive files or object storage. Implementations are called from several workers at once
+public interface DestinationSink extends Closeable {
+
+    void add(String path, File source, LongConsumer progress, BooleanSupplier cancelled) throws IOException;
+
+    // One line for the log once the run is over
+    String summary();
+}
@@ -0,0 +1,104 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+public class DirectoryScanner implements AutoCloseable {
+
+    public interface DirectoryHandler {
+        // Processes one directory and passes each subdirectory to descend into back to the scanner
+        void handle(File sourceDir, File destDir, BiConsumer<File, File> descend) throws IOException;
+    }
+
+    private final ForkJoinPool pool;
+    private final int perFileSystemLimit;
+    private final BooleanSupplier cancelled;
+    private final Map<Object, Semaphore> fileSystemLimits = new ConcurrentHashMap<>();
+
+    public DirectoryScanner(int perFileSystemLimit, BooleanSupplier cancelled) {
+        this.perFileSystemLimit = Math.max(1, perFileSystemLimit);
+        this.cancelled = cancelled;
+        // Room for two file systems at full concurrency, e.g. source and destination during a mirror diff
+        this.pool = new ForkJoinPool(this.perFileSystemLimit * 2);
+    }
+
+    public void walk(File sourceRoot, File destRoot, DirectoryHandler handler) throws IOException {
+        Semaphore limit = fileSystemLimits.computeIfAbsent(fileSystemKey(sourceRoot),
+            k -> new Semaphore(perFileSystemLimit));
+        Walk walk = new Walk(handler, limit);
+        walk.accept(sourceRoot, destRoot);
+        walk.await();
+    }
+
+    // Directories are queued as independent pool tasks instead of recursive calls, so
+    // idle workers steal pending directories and tree depth never grows the thread stack
+    private class Walk implements BiConsumer<File, File> {
+        private final DirectoryHandler handler;
+        private final Semaphore limit;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Walk(DirectoryHandler handler, Semaphore limit) {
+            this.handler = handler;
+            this.limit = limit;
+        }
+
+        @Override
+        public void accept(File sourceDir, File destDir) {
+            pending.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    if (!cancelled.getAsBoolean() && failure.get() == null) {
+                        limit.acquireUninterruptibly();
+                        try {
+                            handler.handle(sourceDir, destDir, this);
+                        } finally {
+                            limit.release();
+                        }
+                    }
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, new IOException("Scan failed in " + sourceDir + ": " + e.getMessage(), e));
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        void await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Directory scan interrupted", e);
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+    }
+
+    private Object fileSystemKey(File root) {
+        try {
+            return Files.getFileStore(root.toPath());
+        } catch (IOException e) {
+            return root.getAbsoluteFile().toPath().getRoot();
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,44 @@
+package scheduledfilecopier;
+
+public class EtaEstimator {
+
+    private static final double SMOOTHING = 0.2;
+    // After this long the live rate is trusted fully over the history of the job
+    private static final long FULL_TRUST_MILLIS = 60000;
+
+    private final double historicalRate;
+    private final long startNanos;
+    private double recentRate;
+    private long lastBytes;
+    private long lastNanos;
+
+    public EtaEstimator(double historicalRate, long bytesAtStart, long nowNanos) {
+        this.historicalRate = historicalRate;
+        this.startNanos = nowNanos;
+        this.lastBytes = bytesAtStart;
+        this.lastNanos = nowNanos;
+    }
+
+    public synchronized void sample(long bytes, long nowNanos) {
+        double seconds = (nowNanos - lastNanos) / 1e9;
+        if (seconds <= 0) return;
+        double rate = (bytes - lastBytes) / seconds;
+        recentRate = recentRate == 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * recentRate;
+        lastBytes = bytes;
+        lastNanos = nowNanos;
+    }
+
+    // Milliseconds left for the remaining bytes, or -1 while there is nothing to go on
+    public synchronized long remainingMillis(long remainingBytes, long nowNanos) {
+        if (remainingBytes <= 0) return 0;
+
+        double trust = Math.min(1.0, (nowNanos - startNanos) / 1e6 / FULL_TRUST_MILLIS);
+        double rate;
+        if (historicalRate > 0) {
+            rate = trust * recentRate + (1 - trust) * historicalRate;
+        } else {
+            rate = recentRate;
+        }
+        return rate > 0 ? (long) (remainingBytes * 1000 / rate) : -1;
+    }
+}
@@ -0,0 +1,202 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+public class FanOutWriter {
+
+    public static class Result {
+        final AtomicReferenceArray<IOException> failures;
+        final long[] bytesWritten;
+
+        Result(int targets) {
+            failures = new AtomicReferenceArray<>(targets);
+            bytesWritten = new long[targets];
+        }
+
+        public IOException failure(int target) {
+            return failures.get(target);
+        }
+
+        public long bytesWritten(int target) {
+            return bytesWritten[target];
+        }
+
+        public boolean allFailed() {
+            for (int i = 0; i < failures.length(); i++) {
+                if (failures.get(i) == null) return false;
+            }
+            return true;
+        }
+    }
+
+    private static class SharedChunk {
+        final ByteBuffer buffer;
+        final AtomicInteger references = new AtomicInteger();
+        long position;
+
+        SharedChunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final int chunkSize;
+    private final int window;
+    private final ExecutorService writers;
+    private final BooleanSupplier cancelled;
+    private final LongConsumer progress;
+    private WriteListener writeListener = (target, bytes, startNanos) -> { };
+
+    public interface WriteListener {
+        void written(int target, long bytes, long startNanos);
+    }
+
+    public FanOutWriter(int chunkSize, int window, ExecutorService writers,
+                        BooleanSupplier cancelled, LongConsumer progress) {
+        this.chunkSize = chunkSize;
+        this.window = Math.max(1, window);
+        this.writers = writers;
+        this.cancelled = cancelled;
+        this.progress = progress;
+    }
+
+    // Called on the writer threads after every chunk a target writes
+    public void setWriteListener(WriteListener writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    public Result copy(File source, List<File> targets) throws IOException {
+        // Every chunk is read once and handed to all targets; a chunk only returns to
+        // the free pool after the slowest target has written it, so fast targets can
+        // run at most one window ahead
+        BlockingQueue<SharedChunk> freeChunks = new ArrayBlockingQueue<>(window);
+        for (int i = 0; i < window; i++) {
+            freeChunks.add(new SharedChunk(ByteBuffer.allocateDirect(chunkSize)));
+        }
+        SharedChunk endOfFile = new SharedChunk(ByteBuffer.allocate(0));
+        Result result = new Result(targets.size());
+
+        List<BlockingQueue<SharedChunk>> queues = new ArrayList<>();
+        List<Future<?>> writerResults = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            BlockingQueue<SharedChunk> queue = new ArrayBlockingQueue<>(window + 1);
+            queues.add(queue);
+            int target = i;
+            writerResults.add(writers.submit(() -> {
+                writeTarget(targets.get(target), target, queue, freeChunks, endOfFile, result);
+                return null;
+            }));
+        }
+
+        try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long position = 0;
+            while (!cancelled.getAsBoolean()) {
+                SharedChunk chunk = freeChunks.take();
+                chunk.buffer.clear();
+                int read = sourceChannel.read(chunk.buffer);
+                if (read < 0) {
+                    freeChunks.put(chunk);
+                    break;
+                }
+                chunk.buffer.flip();
+                chunk.position = position;
+                position += read;
+
+                List<BlockingQueue<SharedChunk>> live = new ArrayList<>();
+                for (int i = 0; i < queues.size(); i++) {
+                    if (result.failures.get(i) == null) live.add(queues.get(i));
+                }
+                if (live.isEmpty()) {
+                    freeChunks.put(chunk);
+                    break;
+                }
+                chunk.references.set(live.size());
+                for (BlockingQueue<SharedChunk> queue : live) {
+                    queue.put(chunk);
+                }
+                progress.accept(read);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Fan-out copy interrupted", e);
+        } finally {
+            for (BlockingQueue<SharedChunk> queue : queues) {
+                queue.offer(endOfFile);
+            }
+            awaitWriters(writerResults);
+        }
+        return result;
+    }
+
+    private void writeTarget(File target, int index, BlockingQueue<SharedChunk> queue,
+                             BlockingQueue<SharedChunk> freeChunks, SharedChunk endOfFile,
+                             Result result) throws InterruptedException, IOException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            result.failures.set(index, e);
+        }
+
+        try {
+            // A failed target keeps draining its queue so it never holds back the others
+            while (true) {
+                SharedChunk chunk = queue.take();
+                if (chunk == endOfFile) break;
+                try {
+                    if (channel != null && result.failures.get(index) == null) {
+                        ByteBuffer view = chunk.buffer.duplicate();
+                        long position = chunk.position;
+                        long start = System.nanoTime();
+                        while (view.hasRemaining()) {
+                            position += channel.write(view, position);
+                        }
+                        result.bytesWritten[index] += chunk.buffer.remaining();
+                        writeListener.written(index, chunk.buffer.remaining(), start);
+                    }
+                } catch (IOException e) {
+                    result.failures.set(index, e);
+                } finally {
+                    if (chunk.references.decrementAndGet() == 0) {
+                        freeChunks.put(chunk);
+                    }
+                }
+            }
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    result.failures.compareAndSet(index, null, e);
+                }
+            }
+        }
+    }
+
+    private void awaitWriters(List<Future<?>> writerResults) throws IOException {
+        for (Future<?> writer : writerResults) {
+            try {
+                writer.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException
+                    ? (IOException) cause
+                    : new IOException("Fan-out writer failed: " + cause.getMessage(), cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Fan-out copy interrupted", e);
+            }
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package scheduledfilecopier;
 
+import com.sun.nio.file.ExtendedOpenOption;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import javax.swing.SwingUtilities;
 
 public class FileCopier {
@@ -17,15 +25,112 @@ public class FileCopier {
     private boolean useVSS;
     private ProgressUpdater progressUpdater;
     private long totalBytesToCopy;
-    private long bytesCopied;
-    private boolean isCancelled;
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private volatile boolean isCancelled;
+    private volatile JobControl control = new JobControl();
     private List<String> skipLocations;
     private List<String> priorityItems;
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    private CopyQueue.OrderingPolicy orderingPolicy = CopyQueue.OrderingPolicy.LISTING;
+    private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+    private ExecutorService pipelineReaders;
+    private long parallelChunkThreshold = DEFAULT_PARALLEL_CHUNK_THRESHOLD;
+    private int parallelChunkCount = DEFAULT_PARALLEL_CHUNK_COUNT;
+    private ExecutorService rangeWorkers;
+    private boolean sparseDetection = true;
+    private boolean mirrorMode;
+    private boolean dryRun;
+    private String trashFolder;
+    private File trashRunFolder;
+    private long deltaThreshold = DEFAULT_DELTA_THRESHOLD;
+    private List<String> additionalDestinations = new ArrayList<>();
+    private List<String> fileList;
+    private int fanOutWindow = DEFAULT_FAN_OUT_WINDOW;
+    private ExecutorService fanOutWriters;
+    private Map<String, AtomicLong> destinationBytes;
+    private Map<String, AtomicLong> destinationFailures;
+    private long directIoThreshold = DEFAULT_DIRECT_IO_THRESHOLD;
+    private final Set<FileStore> directIoUnsupported = ConcurrentHashMap.newKeySet();
+    private int scanThreads = DEFAULT_SCAN_THREADS;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private boolean trackFileIdentity = true;
+    private boolean preserveAttributes = true;
+    private MetadataSync metadata;
+    private final LongAdder unchangedFiles = new LongAdder();
+    private boolean adaptiveTuning = true;
+    private AdaptiveTuner tuner;
+    private ConcurrencyLimit workerLimit;
+    private boolean backgroundMode;
+    private double backgroundTargetLoad = LoadGovernor.DEFAULT_TARGET_LOAD;
+    private double backgroundPauseLoad = LoadGovernor.DEFAULT_PAUSE_LOAD;
+    private LoadGovernor governor;
+    private final AtomicLong filesCopied = new AtomicLong();
+    private RunHistory history;
+    private EtaEstimator eta;
+    private long runStartedAt;
+    private long scanMillis;
+    private volatile ScanSummary scanSummary = new ScanSummary();
+    private ArchiveSink.Format archiveFormat;
+    private long archiveSegmentSize = DEFAULT_ARCHIVE_SEGMENT_SIZE;
+    private String s3Endpoint;
+    private String s3Region;
+    private char[] encryptionPassphrase;
+    private boolean decryptRestore;
+    private String snapshotProvider;
+    private List<String> copyRules = new ArrayList<>();
+    private boolean probeCopyStrategies;
+    private final Map<String, CopyStrategy> customStrategies = new LinkedHashMap<>();
+    private CopyStrategySelector copyStrategies;
+    private String sourceStoreType;
+    private String destStoreType;
+    private SnapshotProvider.Snapshot snapshot;
+    private String liveSourcePath;
+    private EncryptingSink decryptor;
+    private DestinationSink sink;
+    private FileIndex fileIndex;
+    private final List<Relocation> relocations = Collections.synchronizedList(new ArrayList<>());
+    private final List<File[]> pendingLinks = Collections.synchronizedList(new ArrayList<>());
+    private final List<File> pendingDeletes = Collections.synchronizedList(new ArrayList<>());
+
+    public static final int DEFAULT_THREAD_COUNT = 2;
+    public static final int DEFAULT_PIPELINE_DEPTH = 4;
+    public static final long DEFAULT_PARALLEL_CHUNK_THRESHOLD = 1024L * 1024 * 1024;
+    public static final int DEFAULT_PARALLEL_CHUNK_COUNT = 4;
+    public static final long DEFAULT_DELTA_THRESHOLD = 256L * 1024 * 1024;
+    public static final int DEFAULT_FAN_OUT_WINDOW = 8;
+    public static final long DEFAULT_DIRECT_IO_THRESHOLD = 2048L * 1024 * 1024;
+    private static final int DEFAULT_IO_ALIGNMENT = 4096;
+    public static final int DEFAULT_SCAN_THREADS = 8;
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final int MAX_ADAPTIVE_WORKERS = 16;
+    public static final long DEFAULT_ARCHIVE_SEGMENT_SIZE = 4096L * 1024 * 1024;
+    public static final long DEFAULT_PROBE_MIN_SIZE = 64L * 1024 * 1024;
+    private static final long TUNING_INTERVAL_MS = 2000;
+    private static final long ETA_INTERVAL_MS = 1000;
+    private static final long CONTROL_POLL_MS = 50;
+    private static final long RETRY_BASE_DELAY_MS = 2000;
+    private static final long RETRY_MAX_DELAY_MS = 60000;
+    private static final String STATE_FOLDER = ".filecopier";
+    private static final String INDEX_FILE = "file-index.tsv";
+    private static final String STRATEGY_FILE = "copy-strategies.properties";
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int COMPARE_BUFFER_SIZE = 256 * 1024;
+    private static final long RANGE_SIZE = 64L * 1024 * 1024;
+    private static final int SPARSE_BLOCK_SIZE = 64 * 1024;
+    private static final ByteBuffer ZERO_BLOCK = ByteBuffer.allocateDirect(SPARSE_BLOCK_SIZE).asReadOnlyBuffer();
 
     public interface ProgressUpdater {
         void updateProgress(String currentFile, int progress, long bytesCopied, long totalBytes);
         void logMessage(String message);
         boolean isCancelled();
+
+        default void updateEta(long remainingMillis) {
+        }
+
+        // Called from the copy thread after the scan; returning false ends the run before anything is copied
+        default boolean confirmPreflight(ScanSummary summary) {
+            return true;
+        }
     }
 
     public FileCopier(String sourcePath, String destinationPath, boolean copyLockedFiles, 
@@ -42,30 +147,525 @@ public class FileCopier {
         this.skipLocations = skipLocations != null ? skipLocations : new ArrayList<>();
     }
 
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    public void setOrderingPolicy(CopyQueue.OrderingPolicy orderingPolicy) {
+        this.orderingPolicy = orderingPolicy != null ? orderingPolicy : CopyQueue.OrderingPolicy.LISTING;
+    }
+
+    public void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = Math.max(0, pipelineDepth);
+    }
+
+    public void setParallelChunkThreshold(long parallelChunkThreshold) {
+        this.parallelChunkThreshold = parallelChunkThreshold;
+    }
+
+    public void setParallelChunkCount(int parallelChunkCount) {
+        this.parallelChunkCount = Math.max(1, parallelChunkCount);
+    }
+
+    public void setSparseDetection(boolean sparseDetection) {
+        this.sparseDetection = sparseDetection;
+    }
+
+    public void setMirrorMode(boolean mirrorMode) {
+        this.mirrorMode = mirrorMode;
+    }
+
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public void setTrashFolder(String trashFolder) {
+        this.trashFolder = trashFolder != null && !trashFolder.trim().isEmpty() ? trashFolder.trim() : null;
+    }
+
+    public void setDeltaThreshold(long deltaThreshold) {
+        this.deltaThreshold = deltaThreshold;
+    }
+
+    public void setAdditionalDestinations(List<String> additionalDestinations) {
+        this.additionalDestinations = additionalDestinations != null ? additionalDestinations : new ArrayList<>();
+    }
+
+    // Copies only these files, relative to the source folder, instead of scanning it.
+    // Shard workers use this for their part of a distributed copy
+    public void setFileList(List<String> fileList) {
+        this.fileList = fileList;
+    }
+
+    public void setFanOutWindow(int fanOutWindow) {
+        this.fanOutWindow = Math.max(1, fanOutWindow);
+    }
+
+    public void setDirectIoThreshold(long directIoThreshold) {
+        this.directIoThreshold = directIoThreshold;
+    }
+
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = Math.max(1, scanThreads);
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    public void setTrackFileIdentity(boolean trackFileIdentity) {
+        this.trackFileIdentity = trackFileIdentity;
+    }
+
+    public void setPreserveAttributes(boolean preserveAttributes) {
+        this.preserveAttributes = preserveAttributes;
+    }
+
+    // "auto", a provider name such as "btrfs", or null to read the live files
+    public void setSnapshotProvider(String snapshotProvider) {
+        this.snapshotProvider = snapshotProvider != null && !snapshotProvider.trim().isEmpty()
+            ? snapshotProvider.trim().toLowerCase()
+            : null;
+    }
+
+    // Rules like "size>=1G dst=cifs -> ranges|direct", tried before the built-in ones
+    public void setCopyRules(List<String> copyRules) {
+        this.copyRules = copyRules != null ? new ArrayList<>(copyRules) : new ArrayList<>();
+    }
+
+    public void setProbeCopyStrategies(boolean probeCopyStrategies) {
+        this.probeCopyStrategies = probeCopyStrategies;
+    }
+
+    // Makes a strategy available to copy rules under its name; built-in names can be replaced
+    public void registerCopyStrategy(CopyStrategy strategy) {
+        customStrategies.put(strategy.name().toLowerCase(), strategy);
+    }
+
+    public void setAdaptiveTuning(boolean adaptiveTuning) {
+        this.adaptiveTuning = adaptiveTuning;
+    }
+
+    public void setArchiveFormat(ArchiveSink.Format archiveFormat) {
+        this.archiveFormat = archiveFormat;
+    }
+
+    public void setArchiveSegmentSize(long archiveSegmentSize) {
+        this.archiveSegmentSize = Math.max(1024L * 1024, archiveSegmentSize);
+    }
+
+    // Only used for s3:// destinations; the endpoint can point at any S3-compatible service
+    public void setS3Endpoint(String s3Endpoint) {
+        this.s3Endpoint = s3Endpoint;
+    }
+
+    public void setS3Region(String s3Region) {
+        this.s3Region = s3Region;
+    }
+
+    // Writes every file encrypted; null turns encryption off
+    public void setEncryptionPassphrase(char[] encryptionPassphrase) {
+        this.encryptionPassphrase = encryptionPassphrase != null ? encryptionPassphrase.clone() : null;
+    }
+
+    // Copies an encrypted backup back, decrypting .enc files with the encryption passphrase
+    public void setDecryptRestore(boolean decryptRestore) {
+        this.decryptRestore = decryptRestore;
+    }
+
+    public void setBackgroundMode(boolean backgroundMode) {
+        this.backgroundMode = backgroundMode;
+    }
+
+    public void setBackgroundLoadLimits(double targetLoad, double pauseLoad) {
+        this.backgroundTargetLoad = targetLoad;
+        this.backgroundPauseLoad = pauseLoad;
+    }
+
+    public ScanSummary getScanSummary() {
+        return scanSummary;
+    }
+
+    public static RunHistory loadHistory() {
+        return RunHistory.load(userStateFile("history.tsv"));
+    }
+
     public void startCopy() throws IOException {
+        history = loadHistory();
+        String job = RunHistory.jobKey(sourcePath, destinationPath);
+        runStartedAt = System.currentTimeMillis();
+        scanMillis = 0;
+        long typical = history.typicalDurationMillis(job);
+        if (typical > 0) {
+            log("Previous runs of this job took about " + RunHistory.formatDuration(typical));
+        }
+        
+        // One control for the whole run, so a cancel also stops snapshot commands before the copy
         isCancelled = false;
-        bytesCopied = 0;
-        calculateTotalBytes();
+        control = new JobControl();
+        // The caller's cancel flag is watched too, so a cancel reaches the copy without calling cancelCopy()
+        ScheduledExecutorService cancelWatch = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FileCopier-control");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (progressUpdater != null) {
+            cancelWatch.scheduleWithFixedDelay(() -> {
+                if (progressUpdater.isCancelled()) cancelCopy();
+            }, CONTROL_POLL_MS, CONTROL_POLL_MS, TimeUnit.MILLISECONDS);
+        }
         
-        // First copy priority items
-        copyPriorityItems();
+        String outcome = RunHistory.FAILED;
+        try {
+            runFromSnapshot();
+            outcome = isCancelled ? RunHistory.CANCELLED : RunHistory.COMPLETED;
+        } finally {
+            cancelWatch.shutdownNow();
+            // A run that didn't save its file index leaves the last one in place
+            if (fileIndex != null) {
+                fileIndex.close();
+                fileIndex = null;
+            }
+            // A shard is only part of the job, so its timings would skew the estimates
+            if (!dryRun && fileList == null) {
+                recordRun(job, outcome);
+            }
+        }
+    }
+
+    private void recordRun(String job, String outcome) {
+        long duration = System.currentTimeMillis() - runStartedAt;
+        try {
+            history.add(new RunHistory.Run(job, runStartedAt, duration, scanMillis,
+                bytesCopied.get(), filesCopied.get(), outcome));
+        } catch (IOException e) {
+            log("Could not save run history: " + e.getMessage());
+        }
+        if (RunHistory.COMPLETED.equals(outcome)) {
+            long copyMillis = Math.max(1, duration - scanMillis);
+            log("Run took " + RunHistory.formatDuration(duration) + " (scan " + RunHistory.formatDuration(scanMillis)
+                + "), " + filesCopied.get() + " file(s), " + formatSize(bytesCopied.get() * 1000 / copyMillis) + "/s");
+        }
+    }
+
+    private void logEstimate() {
+        double rate = history.copyRate(RunHistory.jobKey(sourcePath, destinationPath));
+        if (rate <= 0 || totalBytesToCopy <= 0) return;
+        long copyMillis = (long) (totalBytesToCopy * 1000 / rate);
+        log("Estimated copy time: " + RunHistory.formatDuration(copyMillis) + ", finishing around "
+            + new SimpleDateFormat("HH:mm").format(new Date(System.currentTimeMillis() + copyMillis)));
+    }
+
+    private int progressPercent() {
+        long total = totalBytesToCopy;
+        // An empty job is complete from the start
+        if (total <= 0) return 100;
+        return (int) Math.max(0, Math.min(100, bytesCopied.get() * 100 / total));
+    }
+
+    // With a snapshot the whole run reads from the frozen view, so the source paths are swapped for the run
+    private void runFromSnapshot() throws IOException {
+        SnapshotProvider.Snapshot view = openSnapshot();
+        if (isCancelled) return;
+        if (view == null) {
+            runCopy();
+            return;
+        }
+        
+        String livePath = sourcePath;
+        String livePrefix = livePath.endsWith(File.separator) ? livePath : livePath + File.separator;
+        List<String> livePriorityItems = priorityItems;
+        snapshot = view;
+        liveSourcePath = livePath;
+        sourcePath = view.root().getAbsolutePath();
+        priorityItems = new ArrayList<>();
+        for (String priorityItem : livePriorityItems) {
+            if (priorityItem.equals(livePath)) {
+                priorityItems.add(sourcePath);
+            } else if (priorityItem.startsWith(livePrefix)) {
+                priorityItems.add(new File(sourcePath, priorityItem.substring(livePrefix.length())).getPath());
+            } else {
+                priorityItems.add(priorityItem);
+            }
+        }
+        try {
+            runCopy();
+        } finally {
+            sourcePath = livePath;
+            priorityItems = livePriorityItems;
+            snapshot = null;
+            liveSourcePath = null;
+            try {
+                view.close();
+            } catch (IOException e) {
+                log("Could not remove the snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    private SnapshotProvider.Snapshot openSnapshot() throws IOException {
+        // The shadow copy option asks for a VSS snapshot of the whole job
+        String name = snapshotProvider != null ? snapshotProvider : useVSS ? "vss" : null;
+        File source = new File(sourcePath);
+        if (name == null || dryRun || !source.exists()) return null;
+        // A snapshot can lack what the live tree has, such as nested subvolumes or mounts, and
+        // mirror mode would delete those from the destination
+        if (mirrorMode) {
+            if (snapshotProvider != null) {
+                throw new IOException("Mirror mode cannot be used with snapshots");
+            }
+            log("Mirror mode copies the live files, without a shadow copy");
+            return null;
+        }
+        
+        SnapshotProvider provider = SnapshotProvider.select(name, source);
+        if (provider == null) {
+            log("No " + name + " snapshot is available for " + sourcePath + ", copying the live files");
+            return null;
+        }
+        try {
+            updateProgress("Creating " + provider.name() + " snapshot...", 0);
+            SnapshotProvider.Snapshot view = provider.create(source, control);
+            log("Copying from a " + provider.name() + " snapshot at " + view.root().getAbsolutePath());
+            return view;
+        } catch (IOException e) {
+            if (isCancelled) return null;
+            log("Could not create a " + provider.name() + " snapshot (" + e.getMessage() + "), copying the live files");
+            return null;
+        }
+    }
+
+    private void runCopy() throws IOException {
+        bytesCopied.set(0);
+        filesCopied.set(0);
+        totalBytesToCopy = 0;
+        relocations.clear();
+        pendingLinks.clear();
+        pendingDeletes.clear();
         
-        // Then copy the main source
         File source = new File(sourcePath);
         File dest = new File(destinationPath);
         
         if (!source.exists()) {
             throw new IOException("Source path does not exist");
         }
+        if (fileList != null && mirrorMode) {
+            throw new IOException("Mirror mode cannot be used with a file list");
+        }
+        if (archiveFormat != null && S3Sink.isS3Path(destinationPath)) {
+            throw new IOException("Archives cannot be written to an S3 destination");
+        }
+        if (encryptionPassphrase != null && (archiveFormat != null || S3Sink.isS3Path(destinationPath))) {
+            throw new IOException("Encryption is only available for folder destinations");
+        }
+        if (decryptRestore && encryptionPassphrase == null) {
+            throw new IOException("Decrypting needs the encryption passphrase");
+        }
+        if (decryptRestore && mirrorMode) {
+            throw new IOException("Mirror mode cannot be used while decrypting");
+        }
+        if (writesToSink() && mirrorMode) {
+            throw new IOException("Mirror mode cannot be used with an archive or S3 destination");
+        }
+        List<CopyStrategySelector.Rule> rules = new ArrayList<>();
+        for (String copyRule : copyRules) {
+            if (copyRule.trim().isEmpty()) continue;
+            try {
+                rules.add(CopyStrategySelector.Rule.parse(copyRule));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        if ((writesToSink() || decryptRestore) && !additionalDestinations.isEmpty()) {
+            log("Additional destinations are ignored when writing archives, uploading to S3 or encrypting");
+        }
         
-        if (source.isFile()) {
-            copySingleFile(source, dest);
-        } else {
-            copyDirectory(source, dest);
+        // Identities recorded by the last run let moved and hard-linked files be
+        // recreated at the destination instead of copied again
+        fileIndex = null;
+        if (trackFileIdentity && !writesToSink() && fileList == null) {
+            if (FileIndex.hasIdentities(source)) {
+                fileIndex = FileIndex.load(new File(stateFolder(), INDEX_FILE));
+            } else {
+                log("File identities are not available for " + source.getAbsolutePath()
+                    + ", so moved and hard-linked files are copied in full");
+            }
+        }
+        // With timestamps carried over, files whose size and mtime match the copy are not copied again
+        metadata = preserveAttributes && !writesToSink() && !decryptRestore ? new MetadataSync(this::log) : null;
+        unchangedFiles.reset();
+        
+        // Build the work queue: priority items are dispatched first, then the main source.
+        // The same pass gathers the pre-flight summary, so the tree is walked only once
+        scanSummary = new ScanSummary();
+        updateProgress("Scanning source...", 0);
+        CopyQueue queue = new CopyQueue(orderingPolicy);
+        try (DirectoryScanner scanner = new DirectoryScanner(scanThreads, () -> isCancelled)) {
+            enqueuePriorityItems(scanner, queue);
+            
+            if (fileList != null) {
+                enqueueFileList(queue, source, dest);
+            } else if (source.isFile()) {
+                if (!shouldSkip(source) && !isPriorityItem(source.getAbsolutePath())) {
+                    queue.add(source, dest, source.length(), CopyQueue.NORMAL_CLASS);
+                    noteScanned(source, source.length());
+                    totalBytesToCopy += source.length();
+                }
+            } else if (mirrorMode) {
+                enqueueMirror(scanner, queue, source, dest);
+            } else {
+                ensureDirectory(dest);
+                queueDirectoryAttributes(source, dest);
+                enqueueDirectory(scanner, queue, source, dest, CopyQueue.NORMAL_CLASS, true);
+            }
+        }
+        queue.forgetDirectories();
+        if (unchangedFiles.sum() > 0) {
+            log("Skipped " + unchangedFiles.sum() + " unchanged file(s)");
+        }
+        
+        scanMillis = System.currentTimeMillis() - runStartedAt;
+        if (isCancelled) {
+            log("Copy cancelled during scan");
+            return;
+        }
+        logScanSummary();
+        log("Total bytes to copy: " + totalBytesToCopy);
+        logEstimate();
+        
+        if (scanSummary.hasPstFiles() && !dryRun && progressUpdater != null
+                && !progressUpdater.confirmPreflight(scanSummary)) {
+            isCancelled = true;
+            log("Copy cancelled after pre-flight check");
+            return;
+        }
+        if (dryRun) {
+            for (Relocation relocation : relocations) {
+                log("Would " + (mirrorMode ? "move" : "copy") + " at destination: "
+                    + relocation.previousDest.getAbsolutePath() + " -> " + relocation.dest.getAbsolutePath());
+            }
+            for (File[] link : pendingLinks) {
+                log("Would link: " + link[0].getAbsolutePath() + " -> " + link[1].getAbsolutePath());
+            }
+            deletePending();
+            CopyQueue.CopyTask task;
+            while ((task = queue.poll()) != null) {
+                log("Would copy: " + task.source.getAbsolutePath() + " -> " + task.dest.getAbsolutePath());
+            }
+            log("Dry run complete - no files were changed");
+            return;
+        }
+        
+        if (pipelineDepth > 0) {
+            pipelineReaders = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "FileCopier-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (archiveFormat != null) {
+            sink = new ArchiveSink(dest, archiveFormat, archiveSegmentSize);
+        } else if (encryptionPassphrase != null && !decryptRestore) {
+            sink = new EncryptingSink(dest, encryptionPassphrase);
+        } else if (decryptRestore) {
+            decryptor = new EncryptingSink(dest, encryptionPassphrase);
+        } else if (S3Sink.isS3Path(destinationPath)) {
+            // Credentials come from the environment so they are never written to the settings file
+            sink = new S3Sink(destinationPath, s3Endpoint, s3Region, credential("AWS_ACCESS_KEY_ID", "aws.accessKeyId"),
+                credential("AWS_SECRET_ACCESS_KEY", "aws.secretAccessKey"), credential("AWS_SESSION_TOKEN", "aws.sessionToken"));
+        } else if (!additionalDestinations.isEmpty()) {
+            fanOutWriters = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "FileCopier-fanout");
+                thread.setDaemon(true);
+                return thread;
+            });
+            destinationBytes = new ConcurrentHashMap<>();
+            destinationFailures = new ConcurrentHashMap<>();
+        }
+        if (parallelChunkCount > 1) {
+            rangeWorkers = Executors.newFixedThreadPool(parallelChunkCount, r -> {
+                Thread thread = new Thread(r, "FileCopier-range");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        copyStrategies = buildCopyStrategies(rules);
+        try {
+            relocateMovedFiles(queue);
+            deletePending();
+            runQueue(queue);
+            if (isCancelled) {
+                // Finished files keep the source's size and mtime, so the next run only copies the rest
+                log("Copy cancelled after " + filesCopied.get() + " file(s); the next run continues from there");
+            }
+        } finally {
+            if (fileIndex != null && !isCancelled) {
+                linkPending();
+                saveFileIndex();
+            }
+            if (metadata != null) {
+                metadata.finish(!isCancelled);
+                metadata = null;
+            }
+            copyStrategies.logSummary();
+            if (probeCopyStrategies) {
+                try {
+                    copyStrategies.save(userStateFile(STRATEGY_FILE));
+                } catch (IOException e) {
+                    log("Could not save copy method choices: " + e.getMessage());
+                }
+            }
+            copyStrategies = null;
+            if (pipelineReaders != null) {
+                pipelineReaders.shutdownNow();
+                pipelineReaders = null;
+            }
+            if (rangeWorkers != null) {
+                rangeWorkers.shutdownNow();
+                rangeWorkers = null;
+            }
+            if (fanOutWriters != null) {
+                fanOutWriters.shutdownNow();
+                fanOutWriters = null;
+                logDestinationSummary();
+            }
+            if (sink != null) {
+                closeSink();
+            }
+            if (decryptor != null) {
+                decryptor.close();
+                log(decryptor.summary());
+                decryptor = null;
+            }
+        }
+    }
+
+    private void closeSink() throws IOException {
+        try {
+            sink.close();
+            log(sink.summary());
+        } finally {
+            sink = null;
         }
     }
 
-    private void copyPriorityItems() throws IOException {
+    private boolean writesToSink() {
+        return archiveFormat != null || S3Sink.isS3Path(destinationPath)
+            || (encryptionPassphrase != null && !decryptRestore);
+    }
+
+    private void copyToSink(File source, File dest) throws IOException {
+        String relativePath = relativeDestination(dest);
+        String entryName = relativePath != null
+            ? relativePath.substring(1).replace(File.separatorChar, '/')
+            : source.getName();
+        sink.add(entryName, source, read -> {
+            addCopied(read);
+            updateProgress("Copying: " + source.getName(), progressPercent());
+        }, () -> isCancelled);
+    }
+
+    private void enqueuePriorityItems(DirectoryScanner scanner, CopyQueue queue) throws IOException {
         for (String priorityItem : priorityItems) {
             if (isCancelled) break;
             
@@ -93,90 +693,686 @@ public class FileCopier {
             File destFile = new File(destinationPath, relativePath);
             
             if (sourceFile.isDirectory()) {
-                // Create parent directories if they don't exist
-                if (!destFile.exists() && !destFile.mkdirs()) {
-                    throw new IOException("Failed to create directory: " + destFile.getAbsolutePath());
-                }
-                
-                // Copy directory contents recursively
-                copyDirectoryContents(sourceFile, destFile);
+                ensureDirectory(destFile);
+                enqueueDirectory(scanner, queue, sourceFile, destFile, CopyQueue.PRIORITY_CLASS, false);
             } else {
-                // Ensure parent directory exists
                 File parent = destFile.getParentFile();
-                if (parent != null && !parent.exists() && !parent.mkdirs()) {
-                    throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+                if (parent != null) {
+                    ensureDirectory(parent);
                 }
                 
-                copySingleFile(sourceFile, destFile);
+                LongAdder scannedBytes = new LongAdder();
+                enqueueFile(queue, sourceFile, destFile, CopyQueue.PRIORITY_CLASS, scannedBytes);
+                totalBytesToCopy += scannedBytes.sum();
             }
         }
     }
 
-    private void copyDirectoryContents(File sourceDir, File destDir) throws IOException {
-        File[] files = sourceDir.listFiles();
-        if (files == null) return;
+    private void enqueueDirectory(DirectoryScanner scanner, CopyQueue queue, File sourceDir, File destDir,
+                                  int priorityClass, boolean excludePriorityItems) throws IOException {
+        LongAdder scannedBytes = new LongAdder();
+        
+        scanner.walk(sourceDir, destDir, (directory, targetDir, descend) -> {
+            // Entries are streamed, so a folder with a million files is never held as a File[]
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory.toPath())) {
+                for (Path entry : entries) {
+                    if (isCancelled) return;
+                    enqueueEntry(queue, entry.toFile(), targetDir, priorityClass, excludePriorityItems,
+                        scannedBytes, descend);
+                }
+            } catch (InvalidPathException e) {
+                // A name the platform charset can't map to a Path; File still lists it
+                File[] files = directory.listFiles();
+                if (files == null) return;
+                for (File file : files) {
+                    if (isCancelled) return;
+                    enqueueEntry(queue, file, targetDir, priorityClass, excludePriorityItems, scannedBytes, descend);
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // Unreadable folders are skipped, as listFiles() did
+            }
+        });
+        
+        totalBytesToCopy += scannedBytes.sum();
+    }
+
+    private void enqueueEntry(CopyQueue queue, File file, File targetDir, int priorityClass,
+                              boolean excludePriorityItems, LongAdder scannedBytes,
+                              java.util.function.BiConsumer<File, File> descend) throws IOException {
+        if (shouldSkip(file)) return;
+        if (excludePriorityItems && isPriorityItem(file.getAbsolutePath())) return;
+        
+        File destFile = new File(targetDir, file.getName());
+        if (file.isDirectory()) {
+            ensureDirectory(destFile);
+            queueDirectoryAttributes(file, destFile);
+            descend.accept(file, destFile);
+        } else {
+            enqueueFile(queue, file, destFile, priorityClass, scannedBytes);
+        }
+    }
 
-        for (File file : files) {
-            if (isCancelled) return;
+    private void enqueueFileList(CopyQueue queue, File source, File dest) throws IOException {
+        LongAdder scannedBytes = new LongAdder();
+        for (String relativePath : fileList) {
+            if (isCancelled) break;
+            File file = new File(source, relativePath);
+            if (!file.isFile()) {
+                log("Listed file not found: " + file.getAbsolutePath());
+                continue;
+            }
             if (shouldSkip(file)) continue;
             
-            File destFile = new File(destDir, file.getName());
-            if (file.isDirectory()) {
-                copyDirectoryContents(file, destFile);
+            File destFile = new File(dest, relativePath);
+            ensureDirectory(destFile.getParentFile());
+            enqueueFile(queue, file, destFile, CopyQueue.NORMAL_CLASS, scannedBytes);
+        }
+        totalBytesToCopy += scannedBytes.sum();
+    }
+
+    private void enqueueMirror(DirectoryScanner scanner, CopyQueue queue, File source, File dest) throws IOException {
+        trashRunFolder = trashFolder != null
+            ? new File(trashFolder, new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()))
+            : null;
+        AtomicLongArray counts = new AtomicLongArray(TreeDiff.Action.values().length);
+        LongAdder scannedBytes = new LongAdder();
+        
+        TreeDiff diff = new TreeDiff(scanner,
+            file -> shouldSkip(file) || isPriorityItem(file.getAbsolutePath()),
+            this::isProtectedDestination,
+            () -> isCancelled);
+        
+        diff.diff(source, dest, new TreeDiff.Listener() {
+            @Override
+            public void directory(File sourceDir, File destDir) throws IOException {
+                ensureDirectory(destDir);
+                queueDirectoryAttributes(sourceDir, destDir);
+            }
+
+            @Override
+            public void action(TreeDiff.Action action, File sourceFile, File destFile) throws IOException {
+                counts.incrementAndGet(action.ordinal());
+                if (action == TreeDiff.Action.DELETE) {
+                    // Plain deletions wait until moved files have been claimed from them
+                    if (sourceFile != null) {
+                        deleteFromDestination(destFile);
+                    } else {
+                        pendingDeletes.add(destFile);
+                    }
+                } else {
+                    enqueueFile(queue, sourceFile, destFile, CopyQueue.NORMAL_CLASS, scannedBytes);
+                }
+            }
+
+            @Override
+            public void unreadable(File sourceDir) {
+                log("Could not list " + sourceDir.getAbsolutePath() + "; nothing under it is copied or deleted this run");
+            }
+
+            @Override
+            public void unchanged(File sourceFile, File destFile) {
+                rememberIdentity(sourceFile, destFile);
+                if (metadata != null) {
+                    try {
+                        queueAttributes(destFile, MetadataSync.read(sourceFile), MetadataSync.read(destFile));
+                    } catch (IOException | InvalidPathException e) {
+                        // Left as it is; the next run looks again
+                    }
+                }
+            }
+        });
+        
+        totalBytesToCopy += scannedBytes.sum();
+        log("Mirror: " + counts.get(TreeDiff.Action.ADD.ordinal()) + " to add, "
+            + counts.get(TreeDiff.Action.UPDATE.ordinal()) + " to update, "
+            + counts.get(TreeDiff.Action.DELETE.ordinal()) + " to delete");
+    }
+
+    private void enqueueFile(CopyQueue queue, File source, File dest, int priorityClass, LongAdder scannedBytes) {
+        if (metadata != null && isUnchanged(source, dest)) {
+            unchangedFiles.increment();
+            rememberIdentity(source, dest);
+            return;
+        }
+        
+        FileIndex.Identity identity = fileIndex != null ? FileIndex.Identity.read(source) : null;
+        long size = identity != null ? identity.size : source.length();
+        noteScanned(source, size);
+        String relativePath = relativeDestination(dest);
+        
+        if (identity != null && relativePath != null) {
+            // A second name for an inode already seen in this run becomes a hard link
+            File linkTarget = fileIndex.claimLinkTarget(identity, dest);
+            if (linkTarget != null) {
+                pendingLinks.add(new File[] {dest, linkTarget});
+                return;
+            }
+            
+            // Same inode, size and mtime under a new name, and the old name is gone: the file only moved
+            FileIndex.Entry previous = fileIndex.previous(identity);
+            if (previous != null && previous.size == size && previous.lastModified == identity.lastModified
+                    && !previous.destPath.equals(relativePath)
+                    && !identity.sameFile(FileIndex.Identity.read(new File(previous.sourcePath)))) {
+                relocations.add(new Relocation(source, dest, new File(destinationPath + previous.destPath),
+                    previous, size, priorityClass));
+                return;
+            }
+        }
+        
+        queue.add(source, dest, size, priorityClass);
+        scannedBytes.add(size);
+    }
+
+    // Size and mtime match every copy of the file, so at most its attributes need updating
+    private boolean isUnchanged(File source, File dest) {
+        try {
+            MetadataSync.Attributes sourceAttrs = MetadataSync.read(source);
+            MetadataSync.Attributes destAttrs = MetadataSync.read(dest);
+            if (!MetadataSync.sameContentStamp(sourceAttrs, destAttrs)) return false;
+            // A replica that is missing or behind still needs the copy
+            for (File extraDest : additionalDestinationsFor(dest, false)) {
+                if (!MetadataSync.sameContentStamp(sourceAttrs, MetadataSync.read(extraDest))) return false;
+            }
+            queueAttributes(dest, sourceAttrs, destAttrs);
+            return true;
+        } catch (IOException | InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private void queueAttributes(File dest, MetadataSync.Attributes source, MetadataSync.Attributes current) {
+        if (!metadata.needsUpdate(source, current, false)) return;
+        if (dryRun) {
+            log("Would update attributes: " + dest.getAbsolutePath());
+        } else {
+            metadata.queueFile(dest, source);
+        }
+    }
+
+    private void queueDirectoryAttributes(File source, File dest) {
+        if (metadata != null && !dryRun) {
+            metadata.queueDirectory(source, dest);
+        }
+    }
+
+    private void noteScanned(File file, long size) {
+        control.checkpoint();
+        if (scanSummary.record(file, size)) {
+            updateProgress("Scanning: " + scanSummary.files() + " files, " + formatSize(scanSummary.bytes()) + " found", 0);
+        }
+    }
+
+    private void logScanSummary() {
+        StringBuilder types = new StringBuilder();
+        for (Map.Entry<String, Long> type : scanSummary.topTypes(5)) {
+            types.append(types.length() > 0 ? ", " : "").append(type.getValue()).append(" ").append(type.getKey());
+        }
+        log("Scan found " + scanSummary.files() + " file(s) to copy (" + formatSize(scanSummary.bytes()) + ") in "
+            + RunHistory.formatDuration(scanMillis) + (types.length() > 0 ? ": " + types : ""));
+        for (File pstFile : scanSummary.pstFiles()) {
+            log("Outlook data file to copy: " + pstFile.getAbsolutePath());
+        }
+    }
+
+    // An unchanged file that is already current at the destination
+    private void rememberIdentity(File source, File dest) {
+        if (fileIndex == null) return;
+        FileIndex.Identity identity = FileIndex.Identity.read(source);
+        if (identity != null && fileIndex.claimLinkTarget(identity, dest) == null) {
+            recordIdentity(identity, source, dest);
+        }
+    }
+    
+    // Only destinations that were fully written are remembered for the next run
+    private void confirmIdentity(File source, File dest) {
+        if (fileIndex == null) return;
+        FileIndex.Identity identity = FileIndex.Identity.read(source);
+        if (identity != null) {
+            recordIdentity(identity, source, dest);
+        }
+    }
+    
+    private void recordIdentity(FileIndex.Identity identity, File source, File dest) {
+        String relativePath = relativeDestination(dest);
+        if (dryRun || relativePath == null) return;
+        try {
+            fileIndex.record(identity, new FileIndex.Entry(livePath(source), relativePath, identity.size,
+                identity.lastModified, dest.lastModified()));
+        } catch (IOException e) {
+            log("Could not write file index: " + e.getMessage());
+        }
+    }
+
+    // The index outlives the run, so it names the live file rather than its copy in a snapshot
+    private String livePath(File file) {
+        String path = file.getAbsolutePath();
+        return liveSourcePath != null && path.startsWith(sourcePath)
+            ? liveSourcePath + path.substring(sourcePath.length())
+            : path;
+    }
+
+    private String relativeDestination(File dest) {
+        String root = new File(destinationPath).getAbsolutePath();
+        String path = dest.getAbsolutePath();
+        return path.startsWith(root + File.separator) ? path.substring(root.length()) : null;
+    }
+
+    private void relocateMovedFiles(CopyQueue queue) {
+        for (Relocation relocation : relocations) {
+            if (isCancelled) break;
+            File previousDest = relocation.previousDest;
+            try {
+                // The old copy is only reused if nothing has touched it since it was written
+                if (!previousDest.isFile() || previousDest.length() != relocation.size
+                        || previousDest.lastModified() != relocation.previous.destModified) {
+                    throw new IOException("previous copy has changed");
+                }
+                ensureDirectory(relocation.dest.getParentFile());
+                
+                // Mirror mode would delete the old name anyway; otherwise it must stay in place
+                if (mirrorMode) {
+                    Files.move(previousDest.toPath(), relocation.dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    log("Moved at destination: " + previousDest.getAbsolutePath() + " -> " + relocation.dest.getAbsolutePath());
+                } else {
+                    Files.copy(previousDest.toPath(), relocation.dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    log("Copied at destination: " + previousDest.getAbsolutePath() + " -> " + relocation.dest.getAbsolutePath());
+                }
+                if (metadata != null) {
+                    metadata.copy(relocation.source, Collections.singletonList(relocation.dest));
+                }
+                confirmIdentity(relocation.source, relocation.dest);
+                
+                List<File> extraDests = additionalDestinationsFor(relocation.dest);
+                if (!extraDests.isEmpty()) {
+                    copyWithFanOut(relocation.dest, extraDests, false);
+                }
+            } catch (IOException e) {
+                log("Cannot reuse " + previousDest.getAbsolutePath() + " (" + e.getMessage()
+                    + "), copying " + relocation.source.getName() + " instead");
+                queue.add(relocation.source, relocation.dest, relocation.size, relocation.priorityClass);
+                totalBytesToCopy += relocation.size;
+            }
+        }
+    }
+
+    private void deletePending() throws IOException {
+        for (File destFile : pendingDeletes) {
+            if (isCancelled) break;
+            // Entries emptied by relocation may already be gone
+            if (Files.exists(destFile.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                deleteFromDestination(destFile);
+            }
+        }
+    }
+
+    private void linkPending() {
+        for (File[] link : pendingLinks) {
+            if (isCancelled) break;
+            File dest = link[0];
+            File target = link[1];
+            if (!target.isFile()) {
+                log("Skipping link " + dest.getAbsolutePath() + ": " + target.getName() + " was not copied");
+                continue;
+            }
+            
+            try {
+                Files.deleteIfExists(dest.toPath());
+                try {
+                    Files.createLink(dest.toPath(), target.toPath());
+                    log("Linked: " + dest.getAbsolutePath() + " -> " + target.getAbsolutePath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    // Destination file system has no hard links, so keep a full copy instead
+                    Files.copy(target.toPath(), dest.toPath());
+                    log("Copied at destination: " + target.getAbsolutePath() + " -> " + dest.getAbsolutePath());
+                }
+                
+                List<File> extraDests = additionalDestinationsFor(dest);
+                if (!extraDests.isEmpty()) {
+                    copyWithFanOut(dest, extraDests, false);
+                }
+            } catch (IOException e) {
+                log("Failed to link " + dest.getAbsolutePath() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void saveFileIndex() {
+        try {
+            fileIndex.save();
+        } catch (IOException e) {
+            log("Could not save file index: " + e.getMessage());
+        }
+    }
+
+    private boolean isProtectedDestination(File destFile) {
+        String path = destFile.getAbsolutePath();
+        if (trashFolder != null && path.startsWith(new File(trashFolder).getAbsolutePath())) {
+            return true;
+        }
+        return path.equals(new File(destinationPath, "Priority Items").getAbsolutePath())
+            || path.equals(stateFolder().getAbsolutePath());
+    }
+
+    private void deleteFromDestination(File destFile) throws IOException {
+        if (dryRun) {
+            log("Would delete: " + destFile.getAbsolutePath());
+            return;
+        }
+        
+        if (trashRunFolder != null) {
+            String relativePath = destFile.getAbsolutePath()
+                .substring(new File(destinationPath).getAbsolutePath().length());
+            File trashed = new File(trashRunFolder, relativePath);
+            ensureDirectory(trashed.getParentFile());
+            Files.move(destFile.toPath(), trashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log("Moved to trash: " + destFile.getAbsolutePath());
+            return;
+        }
+        
+        Files.walkFileTree(destFile.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) throw exc;
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        log("Deleted: " + destFile.getAbsolutePath());
+    }
+
+    private File stateFolder() {
+        // Bookkeeping kept alongside the copy, e.g. delta signatures
+        File dest = new File(destinationPath);
+        File root = dest.isFile() ? dest.getAbsoluteFile().getParentFile() : dest;
+        return new File(root, STATE_FOLDER);
+    }
+
+    private File stateFile(String category, File dest, String suffix) {
+        String root = stateFolder().getParentFile().getAbsolutePath();
+        String path = dest.getAbsolutePath();
+        String relativePath = path.startsWith(root) ? path.substring(root.length()) : dest.getName();
+        return new File(new File(stateFolder(), category), relativePath + suffix);
+    }
+
+    private void ensureDirectory(File directory) throws IOException {
+        // Archive and S3 destinations hold the tree inside the archive or the keys, not as folders
+        if (dryRun || writesToSink()) return;
+        // Scanner threads may race to create the same parent, so only fail if it still isn't there
+        if (!directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Failed to create directory: " + directory.getAbsolutePath());
+        }
+    }
+
+    private void runQueue(CopyQueue queue) throws IOException {
+        // Failed files are deferred with backoff instead of ending the run; workers
+        // pick them up again once the main queue is empty
+        RetryQueue retries = new RetryQueue(maxAttempts, RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS);
+        
+        // With tuning on, spare workers are started up front and the limit decides how many run
+        FileStore store = S3Sink.isS3Path(destinationPath) ? null : fileStoreOf(new File(destinationPath).toPath());
+        String tuningKey = store != null ? store.toString() : destinationPath;
+        int workerCount = threadCount;
+        if (adaptiveTuning && backgroundMode) {
+            // Throttled throughput would only teach the tuner the wrong settings
+            log("Auto-tuning is off while running in background mode");
+        } else if (adaptiveTuning) {
+            workerCount = Math.max(threadCount, MAX_ADAPTIVE_WORKERS);
+            tuner = AdaptiveTuner.load(tuningFile(), tuningKey, threadCount, workerCount);
+            log("Starting with " + tuner.workers() + " worker(s) for " + tuningKey);
+        }
+        workerLimit = new ConcurrencyLimit(tuner != null ? tuner.workers() : threadCount);
+        if (backgroundMode) {
+            List<File> localPaths = S3Sink.isS3Path(destinationPath)
+                ? Collections.singletonList(new File(sourcePath))
+                : Arrays.asList(new File(sourcePath), new File(destinationPath));
+            governor = new LoadGovernor(localPaths, workerLimit,
+                threadCount, backgroundTargetLoad, backgroundPauseLoad, () -> isCancelled, this::log);
+            governor.start();
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+        ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FileCopier-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (tuner != null) {
+            monitor.scheduleAtFixedRate(() -> {
+                // A paused job moves no bytes, which says nothing about the destination
+                if (control.isPaused()) return;
+                if (tuner.tick(bytesCopied.get(), System.nanoTime())) {
+                    workerLimit.setLimit(tuner.workers());
+                }
+            }, 0, TUNING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        // Live rate blended with this job's history, so the ETA is sensible from the first second
+        eta = new EtaEstimator(history != null ? history.copyRate(RunHistory.jobKey(sourcePath, destinationPath)) : 0,
+            bytesCopied.get(), System.nanoTime());
+        monitor.scheduleAtFixedRate(this::updateEta, ETA_INTERVAL_MS, ETA_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        List<Future<?>> results = new ArrayList<>();
+        AtomicBoolean stop = new AtomicBoolean();
+        
+        for (int i = 0; i < workerCount; i++) {
+            results.add(workers.submit(() -> {
+                // Sinks share one output between workers, so an interrupt there would break it for all
+                if (sink == null) control.register(Thread.currentThread());
+                try {
+                    copyTasks(queue, retries, stop);
+                } catch (InterruptedException e) {
+                    if (!isCancelled) throw e;
+                } finally {
+                    control.unregister(Thread.currentThread());
+                }
+                return null;
+            }));
+        }
+        workers.shutdown();
+        
+        IOException failure = null;
+        try {
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    failure = new IOException("Copy worker failed: " + cause.getMessage(), cause);
+                    stopWorkers(workers, stop);
+                    break;
+                } catch (InterruptedException e) {
+                    failure = new IOException("Copy interrupted", e);
+                    stopWorkers(workers, stop);
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            monitor.shutdownNow();
+            if (tuner != null) {
+                saveTuning(tuningKey);
+            }
+            if (governor != null) {
+                governor.stop();
+                governor = null;
+            }
+        }
+        if (failure != null) throw failure;
+        
+        reportFailures(retries.failures());
+    }
+
+    // The other workers stop after their current file, or at once when they share no sink, and are
+    // waited for, so nothing still writes while the run closes its sink and pools
+    private void stopWorkers(ExecutorService workers, AtomicBoolean stop) {
+        stop.set(true);
+        if (sink == null) workers.shutdownNow();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                log("Waiting for the other copy workers to stop...");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void copyTasks(CopyQueue queue, RetryQueue retries, AtomicBoolean stop) throws InterruptedException {
+        while (!isCancelled && !stop.get()) {
+            if (!workerLimit.tryAcquire(200)) continue;
+            try {
+                // Hold off starting another file while the job or background mode is paused
+                throttle(0);
+                CopyQueue.CopyTask task = queue.poll();
+                if (task != null) {
+                    copyOrDefer(retries, task, 1);
+                    continue;
+                }
+                
+                RetryQueue.Item item = retries.poll(200);
+                if (item == null) {
+                    if (retries.isIdle()) break;
+                    continue;
+                }
+                try {
+                    log("Retrying " + item.task.source.getName() + " (attempt " + item.attempt + "/" + maxAttempts + ")");
+                    copyOrDefer(retries, item.task, item.attempt);
+                } finally {
+                    retries.complete(item);
+                }
+            } finally {
+                workerLimit.release();
+            }
+        }
+    }
+
+    private void updateEta() {
+        if (control.isPaused()) return;
+        long now = System.nanoTime();
+        long copied = bytesCopied.get();
+        eta.sample(copied, now);
+        long remaining = eta.remainingMillis(totalBytesToCopy - copied, now);
+        if (progressUpdater != null) {
+            SwingUtilities.invokeLater(() -> progressUpdater.updateEta(remaining));
+        }
+    }
+
+    // Learned settings and history belong to the machine, so they are shared by every job
+    // From the environment, or the system property AWS tools read when it is not set
+    private static String credential(String variable, String property) {
+        String value = System.getenv(variable);
+        return value != null ? value : System.getProperty(property);
+    }
+
+    private static File userStateFile(String name) {
+        return new File(new File(System.getProperty("user.home"), STATE_FOLDER), name);
+    }
+
+    private File tuningFile() {
+        return userStateFile("tuning.properties");
+    }
+
+    private void saveTuning(String tuningKey) {
+        try {
+            tuner.save(tuningFile(), tuningKey);
+            log("Finished with " + tuner.workers() + " worker(s)");
+        } catch (IOException e) {
+            log("Could not save tuned settings: " + e.getMessage());
+        }
+        tuner = null;
+    }
+
+    private void addCopied(long bytes) {
+        bytesCopied.addAndGet(bytes);
+        throttle(bytes);
+    }
+
+    private void throttle(long bytes) {
+        control.checkpoint();
+        LoadGovernor current = governor;
+        if (current != null) {
+            current.acquire(bytes);
+        }
+    }
+
+    private void recordWrite(long bytes, long startNanos) {
+        AdaptiveTuner current = tuner;
+        if (current != null) {
+            current.recordWrite(bytes, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void copyOrDefer(RetryQueue retries, CopyQueue.CopyTask task, int attempt) {
+        try {
+            copySingleFile(task.source, task.dest);
+            // A cancel can leave the file partly written, so it is neither counted nor confirmed
+            if (isCancelled) return;
+            filesCopied.incrementAndGet();
+            confirmIdentity(task.source, task.dest);
+        } catch (IOException e) {
+            // A cancel interrupts transfers mid-file; that file is copied again next run, not retried
+            if (isCancelled) return;
+            String error = e.getMessage() != null ? e.getMessage().split("\\r?\\n")[0] : e.toString();
+            if (!task.source.exists()) {
+                retries.fail(task, attempt, "Source no longer exists");
+                log("Giving up on " + task.source.getAbsolutePath() + ": source no longer exists");
+                return;
+            }
+            
+            long delay = retries.defer(task, attempt, error);
+            if (delay < 0) {
+                log("Giving up on " + task.source.getAbsolutePath() + " after " + attempt + " attempt(s): " + error);
             } else {
-                copySingleFile(file, destFile);
+                log("Deferred " + task.source.getName() + " (" + error + "), retrying in "
+                    + (delay / 1000) + "s while the rest of the copy continues");
             }
+        } catch (RuntimeException e) {
+            // A fault in one file's copy fails that file, not the worker and the run with it
+            if (isCancelled) return;
+            retries.fail(task, attempt, e.toString());
+            log("Giving up on " + task.source.getAbsolutePath() + ": " + e);
+        }
+    }
+
+    private void reportFailures(List<RetryQueue.Failure> failures) throws IOException {
+        if (failures.isEmpty()) return;
+        
+        StringBuilder summary = new StringBuilder();
+        summary.append("=== COPY FAILURE SUMMARY ===\n");
+        summary.append(failures.size()).append(" file(s) could not be copied:\n");
+        for (RetryQueue.Failure failure : failures) {
+            summary.append("- ").append(failure.path)
+                   .append(" (").append(failure.attempts).append(" attempt(s)): ")
+                   .append(failure.error).append("\n");
         }
+        log(summary.toString());
+        
+        throw new IOException(failures.size() + " file(s) could not be copied, first: " + failures.get(0).path);
     }
 
     public void cancelCopy() {
         isCancelled = true;
+        control.cancel();
     }
 
-    private void calculateTotalBytes() {
-        File source = new File(sourcePath);
-        totalBytesToCopy = 0;
-        
-        // Calculate size for priority items first
-        for (String priorityItem : priorityItems) {
-            File file = new File(priorityItem);
-            if (file.exists() && !shouldSkip(file)) {
-                if (file.isFile()) {
-                    totalBytesToCopy += file.length();
-                } else {
-                    totalBytesToCopy += calculateDirectorySize(file);
-                }
-            }
-        }
-        
-        // Then calculate size for main source (excluding any priority items that are within it)
-        if (source.isFile()) {
-            if (!shouldSkip(source) && !isPriorityItem(source.getAbsolutePath())) {
-                totalBytesToCopy += source.length();
-            }
-        } else {
-            totalBytesToCopy += calculateDirectorySizeExcludingPriorityItems(source);
+    // Workers stop at their next chunk with their files still open; nothing leaves the queue
+    public void pauseCopy() {
+        if (control.pause()) {
+            log("Paused");
+            updateProgress("Paused", progressPercent());
         }
-        
-        log("Total bytes to copy: " + totalBytesToCopy);
     }
 
-    private long calculateDirectorySizeExcludingPriorityItems(File directory) {
-        long size = 0;
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (isCancelled) return 0;
-                if (shouldSkip(file) || isPriorityItem(file.getAbsolutePath())) continue;
-                
-                if (file.isFile()) {
-                    size += file.length();
-                } else {
-                    size += calculateDirectorySizeExcludingPriorityItems(file);
-                }
-            }
+    public void resumeCopy() {
+        if (control.resume()) {
+            log("Resumed");
         }
-        return size;
+    }
+
+    public boolean isPaused() {
+        return control.isPaused();
     }
 
     private boolean isPriorityItem(String path) {
@@ -188,25 +1384,8 @@ public class FileCopier {
         return false;
     }
 
-    private long calculateDirectorySize(File directory) {
-        long size = 0;
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (isCancelled) return 0;
-                if (shouldSkip(file)) continue;
-                
-                if (file.isFile()) {
-                    size += file.length();
-                } else {
-                    size += calculateDirectorySize(file);
-                }
-            }
-        }
-        return size;
-    }
-
     private boolean shouldSkip(File file) {
+        if (file.getName().equals(SnapshotProvider.SNAPSHOT_FOLDER)) return true;
         String absolutePath = file.getAbsolutePath().toLowerCase();
         for (String skipLocation : skipLocations) {
             if (!skipLocation.trim().isEmpty() && absolutePath.contains(skipLocation.toLowerCase().trim())) {
@@ -223,28 +1402,190 @@ public class FileCopier {
             dest = new File(dest, source.getName());
         }
         
+        if (sink != null) {
+            copyToSink(source, dest);
+            return;
+        }
+        if (decryptor != null && source.getName().endsWith(EncryptingSink.SUFFIX)) {
+            copyDecrypted(source, dest);
+            return;
+        }
+        
         updateProgress("Copying: " + source.getName(), 0);
         
-        if (source.getName().toLowerCase().endsWith(".pst")) {
-            copyPstFile(source, dest);
-            return;
+        List<File> extraDests = additionalDestinationsFor(dest);
+        // A snapshot can't be locked, so PST files need none of their special handling
+        boolean isPst = snapshot == null && source.getName().toLowerCase().endsWith(".pst");
+        // Touched but not edited: the content already matches, so only the attributes are brought over
+        if (metadata != null && extraDests.isEmpty() && !isPst && !isDeltaCandidate(source, dest)
+                && dest.length() == source.length()) {
+            Boolean rewritten = rewriteFromFirstChange(source, dest);
+            if (rewritten != null) {
+                // A cancelled rewrite may be partial and must not look current to the next run
+                if (isCancelled) return;
+                if (rewritten) {
+                    metadata.copy(source, Collections.singletonList(dest));
+                } else {
+                    metadata.refresh(source, dest);
+                }
+                return;
+            }
+        }
+        if (!extraDests.isEmpty() && !isPst && !isDeltaCandidate(source, dest)) {
+            List<File> targets = new ArrayList<>();
+            targets.add(dest);
+            targets.addAll(extraDests);
+            try {
+                List<File> written = copyWithFanOut(source, targets, true);
+                if (metadata != null && !isCancelled) metadata.copy(source, written);
+                return;
+            } catch (IOException e) {
+                if (!copyLockedFiles) throw e;
+                log("Fan-out copy failed, copying to primary destination first: " + e.getMessage());
+            }
+        }
+        
+        copyToDestination(source, dest, isPst);
+        List<File> written = new ArrayList<>();
+        written.add(dest);
+        
+        // Files that needed a special copy path are replicated from the primary copy
+        if (!extraDests.isEmpty() && !isCancelled) {
+            destinationBytes.computeIfAbsent(destinationPath, k -> new AtomicLong()).addAndGet(dest.length());
+            written.addAll(copyWithFanOut(dest, extraDests, false));
+        }
+        // A cancelled copy may be partial and must not look current to the next run
+        if (metadata != null && !isCancelled) {
+            metadata.copy(source, written);
+        }
+    }
+
+    // For a destination of the source's size: compares block by block and writes from the first block
+    // that differs, so an unedited file is only read and an edited one is still read and written once.
+    // Returns whether anything was written, or null when either file can't be opened, e.g. locked,
+    // and the normal copy path has to take over
+    private Boolean rewriteFromFirstChange(File source, File dest) throws IOException {
+        updateProgress("Comparing: " + source.getName(), progressPercent());
+        RandomAccessFile sourceFile;
+        RandomAccessFile destFile;
+        try {
+            sourceFile = new RandomAccessFile(source, "r");
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            destFile = new RandomAccessFile(dest, "rw");
+        } catch (IOException e) {
+            sourceFile.close();
+            return null;
         }
         
-        if (!copyLockedFiles && isFileLocked(source)) {
+        byte[] sourceBuffer = new byte[COMPARE_BUFFER_SIZE];
+        byte[] destBuffer = new byte[COMPARE_BUFFER_SIZE];
+        boolean changed = false;
+        try (RandomAccessFile in = sourceFile; RandomAccessFile out = destFile) {
+            long size = in.length();
+            long position = 0;
+            while (position < size && !isCancelled) {
+                int length = (int) Math.min(sourceBuffer.length, size - position);
+                in.readFully(sourceBuffer, 0, length);
+                if (!changed) {
+                    out.readFully(destBuffer, 0, length);
+                    if (Arrays.mismatch(sourceBuffer, 0, length, destBuffer, 0, length) >= 0) {
+                        changed = true;
+                        out.seek(position);
+                    }
+                }
+                if (changed) {
+                    out.write(sourceBuffer, 0, length);
+                }
+                position += length;
+                addCopied(length);
+            }
+        }
+        return changed;
+    }
+
+    private void copyDecrypted(File source, File dest) throws IOException {
+        String name = dest.getName();
+        File target = new File(dest.getAbsoluteFile().getParentFile(),
+            name.substring(0, name.length() - EncryptingSink.SUFFIX.length()));
+        decryptor.decrypt(source, target, read -> {
+            addCopied(read);
+            updateProgress("Decrypting: " + source.getName(), progressPercent());
+        }, () -> isCancelled);
+    }
+
+    private void copyToDestination(File source, File dest, boolean isPst) throws IOException {
+        // PST files and snapshots have their own ways around locks
+        if (!isPst && snapshot == null && !copyLockedFiles && isFileLocked(source)) {
             throw new IOException("File is locked and copyLockedFiles is false: " + source.getAbsolutePath());
         }
         
+        CopyStrategySelector.Choice choice = copyStrategies.select(new CopyStrategySelector.FileTraits(
+            source.length(), source.getName(), sourceStoreType, destStoreType, dest.isFile(),
+            () -> isFileLocked(source)));
         try {
-            robustCopy(source, dest);
+            choice.copy(source, dest);
         } catch (IOException e) {
-            if (copyLockedFiles && forceClose) {
-                copyLockedFileWithForceClose(source, dest);
-            } else if (copyLockedFiles) {
-                copyLockedFile(source, dest);
-            } else {
-                throw e;
+            if (isPst || snapshot != null || !copyLockedFiles) throw e;
+            log("Normal copy failed, attempting alternative approaches...");
+            copyLockedFallback(source, dest);
+        }
+    }
+
+    private CopyStrategySelector buildCopyStrategies(List<CopyStrategySelector.Rule> jobRules) {
+        Map<String, CopyStrategy> strategies = new LinkedHashMap<>();
+        addStrategy(strategies, "channels", this::copyWithFileChannels);
+        addStrategy(strategies, "streams", this::copyWithStreams);
+        addStrategy(strategies, "direct", this::copyWithDirectIO);
+        addStrategy(strategies, "delta", this::copyWithDelta);
+        addStrategy(strategies, "pst", this::copyPstFile);
+        addStrategy(strategies, "locked", this::copyLockedFile);
+        addStrategy(strategies, "locked-force", this::copyLockedFileWithForceClose);
+        if (pipelineReaders != null) addStrategy(strategies, "pipeline", this::copyWithPipeline);
+        if (rangeWorkers != null) addStrategy(strategies, "ranges", this::copyWithParallelRanges);
+        if (System.getProperty("os.name").toLowerCase().contains("win")) addStrategy(strategies, "vss", this::copyWithVSS);
+        for (Map.Entry<String, CopyStrategy> entry : customStrategies.entrySet()) {
+            CopyStrategy custom = entry.getValue();
+            // Built-in copies count their bytes as they go; registered ones once they finish
+            addStrategy(strategies, entry.getKey(), (source, dest) -> {
+                custom.copy(source, dest);
+                addCopied(source.length());
+            });
+        }
+        
+        // The built-in rules follow the job's settings and come after the job's own rules
+        boolean lockedFilePaths = copyLockedFiles && snapshot == null;
+        List<CopyStrategySelector.Rule> rules = new ArrayList<>(jobRules);
+        if (snapshot == null) rules.add(CopyStrategySelector.Rule.parse("ext=.pst -> pst"));
+        if (deltaThreshold > 0) rules.add(CopyStrategySelector.Rule.parse("exists size>=" + deltaThreshold + " -> delta"));
+        if (!lockedFilePaths) {
+            rules.add(CopyStrategySelector.Rule.parse("size>=" + parallelChunkThreshold + " -> ranges"));
+            if (directIoThreshold > 0) rules.add(CopyStrategySelector.Rule.parse("size>=" + directIoThreshold + " -> direct"));
+            if (probeCopyStrategies) {
+                rules.add(CopyStrategySelector.Rule.parse("size>=" + DEFAULT_PROBE_MIN_SIZE + " -> pipeline|channels|direct"));
             }
+            rules.add(CopyStrategySelector.Rule.parse("size>" + CHUNK_SIZE + " -> pipeline"));
         }
+        
+        sourceStoreType = storeType(new File(sourcePath));
+        destStoreType = storeType(new File(destinationPath));
+        CopyStrategySelector selector = new CopyStrategySelector(rules, strategies,
+            strategies.get(lockedFilePaths ? "streams" : "channels"), probeCopyStrategies, this::log);
+        if (probeCopyStrategies) {
+            selector.load(userStateFile(STRATEGY_FILE));
+        }
+        return selector;
+    }
+
+    private static void addStrategy(Map<String, CopyStrategy> strategies, String name, CopyStrategy.Copy copy) {
+        strategies.put(name, CopyStrategy.of(name, copy));
+    }
+
+    private String storeType(File file) {
+        FileStore store = fileStoreOf(file.toPath());
+        return store != null ? store.type() : "unknown";
     }
 
     private void copyPstFile(File source, File dest) throws IOException {
@@ -273,24 +1614,21 @@ public class FileCopier {
             if (!enhancedCloseOutlookProcesses()) {
                 throw new IOException("Could not close Outlook processes");
             }
-            // Extra wait time after closing Outlook
-            try { Thread.sleep(5000); } catch (InterruptedException ie) {}
         }
         
-        // 3. Try normal copy with retries
-        int retries = 3;
-        for (int i = 1; i <= retries; i++) {
-            try {
-                log("Attempting normal copy (Attempt " + i + "/" + retries + ")...");
+        // 3. Try normal copy; if Outlook has not released the file yet the
+        // copy is deferred and retried later instead of sleeping here
+        try {
+            log("Attempting normal copy...");
+            if (isDeltaCandidate(source, dest)) {
+                copyWithDelta(source, dest);
+            } else {
                 copyWithStreams(source, dest);
-                log("Successfully copied via normal method");
-                return;
-            } catch (IOException e) {
-                log("Attempt " + i + " failed: " + e.getMessage());
-                if (i < retries) {
-                    try { Thread.sleep(2000); } catch (InterruptedException ie) {}
-                }
             }
+            log("Successfully copied via normal method");
+            return;
+        } catch (IOException e) {
+            log("Normal copy failed: " + e.getMessage());
         }
         
         // 4. Final fallback with detailed error reporting
@@ -306,8 +1644,9 @@ public class FileCopier {
 
     private boolean isOutlookRunning() {
         try {
-            Process process = Runtime.getRuntime().exec("tasklist /FI \"IMAGENAME eq outlook.exe\"");
+            Process process = control.track(Runtime.getRuntime().exec("tasklist /FI \"IMAGENAME eq outlook.exe\""));
             String output = readProcessOutput(process);
+            control.waitFor(process);
             return output.contains("outlook.exe");
         } catch (Exception e) {
             log("Error checking Outlook status: " + e.getMessage());
@@ -321,9 +1660,9 @@ public class FileCopier {
             
             // 1. First try graceful close
             log("Attempting to close Outlook gracefully...");
-            Process graceful = Runtime.getRuntime().exec("taskkill /IM outlook.exe");
-            graceful.waitFor();
-            Thread.sleep(3000);
+            Process graceful = control.track(Runtime.getRuntime().exec("taskkill /IM outlook.exe"));
+            control.waitFor(graceful);
+            if (!control.sleep(3000)) return false;
             
             // 2. Verify closure
             if (!isOutlookRunning()) {
@@ -333,9 +1672,9 @@ public class FileCopier {
             
             // 3. Force kill if still running
             log("Forcing Outlook to close...");
-            Process force = Runtime.getRuntime().exec("taskkill /IM outlook.exe /F");
-            int exitCode = force.waitFor();
-            Thread.sleep(5000); // Extended wait time
+            Process force = control.track(Runtime.getRuntime().exec("taskkill /IM outlook.exe /F"));
+            int exitCode = control.waitFor(force);
+            if (!control.sleep(5000)) return false; // Extended wait time
             
             // 4. Final verification
             if (!isOutlookRunning()) {
@@ -380,58 +1719,53 @@ public class FileCopier {
             throw new IOException("VSS is only supported on Windows");
         }
 
-        try {
-            String sourcePath = source.getAbsolutePath().replace("'", "''");
-            String destPath = dest.getAbsolutePath().replace("'", "''");
-            
-            // Enhanced VSS command with better error handling
-            String cmd = String.format(
-                "powershell -command \"$ErrorActionPreference='Stop'; " +
-                "Try { " +
-                "  $file = New-Object System.IO.FileInfo('%s'); " +
-                "  $stream = $file.Open([System.IO.FileMode]::Open, " +
-                "    [System.IO.FileAccess]::Read, [System.IO.FileShare]::ReadWrite); " +
-                "  Copy-Item -Path '%s' -Destination '%s' -Force; " +
-                "  $stream.Close(); " +
-                "  if (!(Test-Path '%s')) { exit 1 } " +
-                "} Catch { exit 2 }\"",
-                sourcePath, sourcePath, destPath, destPath);
-
-            log("Executing VSS command...");
-            Process process = Runtime.getRuntime().exec(cmd);
-            
-            // Read error stream
-            StringBuilder errors = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(process.getErrorStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    errors.append(line).append("\n");
-                }
-            }
-            
-            int exitCode = process.waitFor();
-            if (exitCode == 1) {
-                throw new IOException("VSS copy failed - destination file not created");
-            } else if (exitCode == 2) {
-                throw new IOException("VSS copy failed with PowerShell error: " + errors.toString());
-            } else if (exitCode != 0) {
-                throw new IOException("VSS copy failed with unknown error (code " + exitCode + ")");
-            }
-            
-            // Verify copy
-            if (!dest.exists() || dest.length() != source.length()) {
-                throw new IOException("VSS copy verification failed - file sizes don't match");
+        String sourcePath = source.getAbsolutePath().replace("'", "''");
+        String destPath = dest.getAbsolutePath().replace("'", "''");
+        
+        // Enhanced VSS command with better error handling
+        String cmd = String.format(
+            "powershell -command \"$ErrorActionPreference='Stop'; " +
+            "Try { " +
+            "  $file = New-Object System.IO.FileInfo('%s'); " +
+            "  $stream = $file.Open([System.IO.FileMode]::Open, " +
+            "    [System.IO.FileAccess]::Read, [System.IO.FileShare]::ReadWrite); " +
+            "  Copy-Item -Path '%s' -Destination '%s' -Force; " +
+            "  $stream.Close(); " +
+            "  if (!(Test-Path '%s')) { exit 1 } " +
+            "} Catch { exit 2 }\"",
+            sourcePath, sourcePath, destPath, destPath);
+
+        log("Executing VSS command...");
+        Process process = control.track(Runtime.getRuntime().exec(cmd));
+        
+        // Read error stream
+        StringBuilder errors = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(process.getErrorStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                errors.append(line).append("\n");
             }
-            
-            // Update progress
-            bytesCopied += source.length();
-            int progress = (int) ((bytesCopied * 100) / totalBytesToCopy);
-            updateProgress("Copied (VSS): " + source.getName(), progress);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException("VSS copy interrupted", e);
         }
+        
+        int exitCode = control.waitFor(process);
+        if (exitCode == 1) {
+            throw new IOException("VSS copy failed - destination file not created");
+        } else if (exitCode == 2) {
+            throw new IOException("VSS copy failed with PowerShell error: " + errors.toString());
+        } else if (exitCode != 0) {
+            throw new IOException("VSS copy failed with unknown error (code " + exitCode + ")");
+        }
+        
+        // Verify copy
+        if (!dest.exists() || dest.length() != source.length()) {
+            throw new IOException("VSS copy verification failed - file sizes don't match");
+        }
+        
+        // Update progress
+        addCopied(source.length());
+        int progress = progressPercent();
+        updateProgress("Copied (VSS): " + source.getName(), progress);
     }
 
     private boolean hasAdminPrivileges() {
@@ -441,28 +1775,15 @@ public class FileCopier {
         
         try {
             String cmd = "net session >nul 2>&1";
-            Process process = Runtime.getRuntime().exec(cmd);
-            return process.waitFor() == 0;
+            Process process = control.track(Runtime.getRuntime().exec(cmd));
+            return control.waitFor(process) == 0;
         } catch (Exception e) {
             return false;
         }
     }
 
-    private void robustCopy(File source, File dest) throws IOException {
-        // 1. First try normal copy
-        try {
-            if (!copyLockedFiles) {
-                copyWithFileChannels(source, dest);
-            } else {
-                copyWithStreams(source, dest);
-            }
-            return;
-        } catch (IOException e) {
-            if (!copyLockedFiles) throw e;
-            log("Normal copy failed, attempting alternative approaches...");
-        }
-        
-        // 2. Try Windows VSS if available and enabled
+    private void copyLockedFallback(File source, File dest) throws IOException {
+        // 1. Try Windows VSS if available and enabled
         if (useVSS && hasAdminPrivileges()) {
             try {
                 copyWithVSS(source, dest);
@@ -472,7 +1793,7 @@ public class FileCopier {
             }
         }
         
-        // 3. Fall back to other methods
+        // 2. Fall back to other methods
         if (forceClose) {
             copyLockedFileWithForceClose(source, dest);
         } else {
@@ -480,45 +1801,416 @@ public class FileCopier {
         }
     }
 
+    private List<File> additionalDestinationsFor(File dest) {
+        return additionalDestinationsFor(dest, true);
+    }
+
+    private List<File> additionalDestinationsFor(File dest, boolean prepare) {
+        List<File> extraDests = new ArrayList<>();
+        // Archives, uploads, encryption and restores write one destination only
+        if (sink != null || decryptor != null) return extraDests;
+        String primaryRoot = new File(destinationPath).getAbsolutePath();
+        String relativePath = dest.getAbsolutePath().startsWith(primaryRoot)
+            ? dest.getAbsolutePath().substring(primaryRoot.length())
+            : File.separator + dest.getName();
+        
+        for (String extraRoot : additionalDestinations) {
+            File extraDest = relativePath.isEmpty() && new File(extraRoot).isDirectory()
+                ? new File(extraRoot, dest.getName())
+                : new File(extraRoot + relativePath);
+            // A destination that cannot be prepared fails on its own when the file is opened
+            File parent = extraDest.getAbsoluteFile().getParentFile();
+            if (prepare && parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            extraDests.add(extraDest);
+        }
+        return extraDests;
+    }
+
+    // Returns the targets that were written completely
+    private List<File> copyWithFanOut(File source, List<File> targets, boolean countProgress) throws IOException {
+        // Progress follows source bytes, so a replica made from the primary copy is not counted again
+        FanOutWriter fanOut = new FanOutWriter(CHUNK_SIZE, fanOutWindow, fanOutWriters, () -> isCancelled, read -> {
+            if (countProgress) {
+                addCopied(read);
+                int progress = progressPercent();
+                updateProgress("Copying: " + source.getName(), progress);
+            }
+        });
+        if (countProgress) {
+            // The first target is the primary destination, the store the tuner is learning
+            fanOut.setWriteListener((target, bytes, startNanos) -> {
+                if (target == 0) recordWrite(bytes, startNanos);
+            });
+        }
+        FanOutWriter.Result result = fanOut.copy(source, targets);
+        List<File> written = new ArrayList<>();
+        
+        for (int i = 0; i < targets.size(); i++) {
+            String root = destinationRootOf(targets.get(i));
+            destinationBytes.computeIfAbsent(root, k -> new AtomicLong()).addAndGet(result.bytesWritten(i));
+            IOException failure = result.failure(i);
+            if (failure != null) {
+                destinationFailures.computeIfAbsent(root, k -> new AtomicLong()).incrementAndGet();
+                log("Failed to copy " + source.getName() + " to " + targets.get(i).getAbsolutePath()
+                    + ": " + failure.getMessage());
+            } else {
+                written.add(targets.get(i));
+            }
+        }
+        
+        if (result.allFailed()) {
+            throw result.failure(0);
+        }
+        return written;
+    }
+
+    private String destinationRootOf(File target) {
+        String path = target.getAbsolutePath();
+        for (String extraRoot : additionalDestinations) {
+            if (path.startsWith(new File(extraRoot).getAbsolutePath())) {
+                return extraRoot;
+            }
+        }
+        return destinationPath;
+    }
+
+    private void logDestinationSummary() {
+        List<String> roots = new ArrayList<>();
+        roots.add(destinationPath);
+        roots.addAll(additionalDestinations);
+        for (String root : roots) {
+            AtomicLong written = destinationBytes.get(root);
+            AtomicLong failures = destinationFailures.get(root);
+            log("Destination " + root + ": " + formatSize(written != null ? written.get() : 0) + " written"
+                + (failures != null ? ", " + failures.get() + " file(s) failed" : ""));
+        }
+    }
+
+    private boolean isDeltaCandidate(File source, File dest) {
+        return deltaThreshold > 0 && source.length() >= deltaThreshold && dest.isFile();
+    }
+
+    private void copyWithDelta(File source, File dest) throws IOException {
+        DeltaCopier delta = new DeltaCopier(DeltaCopier.DEFAULT_BLOCK_SIZE, () -> isCancelled, transferred -> {
+            addCopied(transferred);
+            int progress = progressPercent();
+            updateProgress("Comparing: " + source.getName(), progress);
+        });
+        
+        File signatures = stateFile("signatures", dest, ".sig");
+        long written = delta.copy(source, dest, signatures);
+        // The attributes go on now rather than after the copy, so the saved signatures carry the
+        // modification time the destination keeps and the next run can use them
+        if (metadata != null) {
+            metadata.copy(source, Collections.singletonList(dest));
+            DeltaCopier.restampSignatures(signatures, dest);
+        }
+        log("Delta copy of " + source.getName() + ": rewrote " + formatSize(written)
+            + " of " + formatSize(source.length()));
+    }
+
     private void copyWithFileChannels(File source, File dest) throws IOException {
         try (FileChannel sourceChannel = new FileInputStream(source).getChannel();
              FileChannel destChannel = new FileOutputStream(dest).getChannel()) {
             
             long fileSize = sourceChannel.size();
             long position = 0;
-            long chunkSize = 1024 * 1024;
+            long chunkSize = CHUNK_SIZE;
             
             while (position < fileSize && !isCancelled) {
                 long remaining = fileSize - position;
                 long transferSize = Math.min(chunkSize, remaining);
                 
+                long start = System.nanoTime();
                 long transferred = destChannel.transferFrom(sourceChannel, position, transferSize);
+                recordWrite(transferred, start);
                 position += transferred;
-                bytesCopied += transferred;
+                addCopied(transferred);
+                
+                int progress = progressPercent();
+                updateProgress("Copying: " + source.getName(), progress);
+            }
+            setFinalSize(destChannel, position);
+        }
+    }
+
+    private void copyWithPipeline(File source, File dest) throws IOException {
+        // Reader thread fills buffers while this thread drains them to the destination,
+        // so reading chunk N+1 overlaps with writing chunk N
+        BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(pipelineDepth);
+        BlockingQueue<ByteBuffer> filledBuffers = new ArrayBlockingQueue<>(pipelineDepth + 1);
+        ByteBuffer endOfFile = ByteBuffer.allocate(0);
+        for (int i = 0; i < pipelineDepth; i++) {
+            freeBuffers.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+        }
+        
+        Future<?> reader = pipelineReaders.submit(() -> {
+            try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                while (!isCancelled) {
+                    ByteBuffer buffer = freeBuffers.take();
+                    buffer.clear();
+                    if (sourceChannel.read(buffer) < 0) break;
+                    buffer.flip();
+                    filledBuffers.put(buffer);
+                }
+            } finally {
+                filledBuffers.put(endOfFile);
+            }
+            return null;
+        });
+        
+        try (FileChannel destChannel = openDestination(dest)) {
+            long position = 0;
+            while (true) {
+                ByteBuffer buffer = filledBuffers.take();
+                if (buffer == endOfFile) break;
+                
+                int length = buffer.remaining();
+                long start = System.nanoTime();
+                writeChunk(destChannel, buffer, position);
+                recordWrite(length, start);
+                freeBuffers.put(buffer);
+                position += length;
+                addCopied(length);
                 
-                int progress = (int) ((bytesCopied * 100) / totalBytesToCopy);
+                int progress = progressPercent();
                 updateProgress("Copying: " + source.getName(), progress);
             }
+            reader.get();
+            setFinalSize(destChannel, position);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException
+                ? (IOException) cause
+                : new IOException("Pipelined read failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Pipelined copy interrupted", e);
+        } finally {
+            reader.cancel(true);
+        }
+    }
+
+    private void copyWithParallelRanges(File source, File dest) throws IOException {
+        // Ranges are written into a temp file set to its final size up front, which only
+        // replaces the destination once every range has been copied
+        File partFile = new File(dest.getParentFile(), dest.getName() + ".part");
+        long fileSize = source.length();
+        
+        try (RandomAccessFile part = new RandomAccessFile(partFile, "rw")) {
+            // Drop any stale content first so skipped zero blocks read back as zeros
+            part.setLength(0);
+            part.setLength(fileSize);
+        }
+        
+        boolean bulk = isBulkTransfer(source);
+        int alignment = bulk ? ioAlignment(source, partFile) : 1;
+        boolean committed = false;
+        try (FileChannel sourceChannel = openChannel(source.toPath(), bulk, StandardOpenOption.READ);
+             FileChannel partChannel = openChannel(partFile.toPath(), bulk, StandardOpenOption.WRITE);
+             FileChannel tailChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE)) {
+            
+            List<Future<?>> ranges = new ArrayList<>();
+            for (long start = 0; start < fileSize; start += RANGE_SIZE) {
+                long rangeStart = start;
+                long rangeEnd = Math.min(start + RANGE_SIZE, fileSize);
+                ranges.add(rangeWorkers.submit(() -> {
+                    copyRange(source, sourceChannel, partChannel, tailChannel, alignment, rangeStart, rangeEnd);
+                    return null;
+                }));
+            }
+            
+            try {
+                for (Future<?> range : ranges) {
+                    range.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException
+                    ? (IOException) cause
+                    : new IOException("Range copy failed: " + cause.getMessage(), cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Range copy interrupted", e);
+            } finally {
+                for (Future<?> range : ranges) {
+                    range.cancel(true);
+                }
+            }
+            
+            if (isCancelled) return;
+            partChannel.force(false);
+            committed = true;
+        } finally {
+            if (!committed) {
+                partFile.delete();
+            }
+        }
+        
+        try {
+            Files.move(partFile.toPath(), dest.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partFile.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void copyRange(File source, FileChannel sourceChannel, FileChannel destChannel,
+                           FileChannel tailChannel, int alignment, long start, long end) throws IOException {
+        ByteBuffer buffer = alignedBuffer(alignment);
+        long position = start;
+        
+        while (position < end && !isCancelled) {
+            buffer.clear();
+            buffer.limit((int) Math.min(CHUNK_SIZE, alignUp(end - position, alignment)));
+            int read = sourceChannel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file while copying: " + source.getAbsolutePath());
+            }
+            read = (int) Math.min(read, end - position);
+            
+            buffer.flip();
+            buffer.limit(read);
+            long writeStart = System.nanoTime();
+            writeAligned(destChannel, tailChannel, buffer, position, alignment);
+            recordWrite(read, writeStart);
+            position += read;
+            addCopied(read);
+            
+            int progress = progressPercent();
+            updateProgress("Copying: " + source.getName(), progress);
+        }
+    }
+
+    private boolean isBulkTransfer(File source) {
+        return directIoThreshold > 0 && source.length() >= directIoThreshold;
+    }
+
+    private void copyWithDirectIO(File source, File dest) throws IOException {
+        // Bulk mode bypasses the OS page cache so a large copy does not evict
+        // the working set of other applications on this machine
+        int alignment = ioAlignment(source, dest);
+        ByteBuffer buffer = alignedBuffer(alignment);
+        long fileSize = source.length();
+        
+        try (FileChannel sourceChannel = openChannel(source.toPath(), true, StandardOpenOption.READ);
+             FileChannel destChannel = openChannel(dest.toPath(), true, StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel tailChannel = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE)) {
+            
+            long position = 0;
+            while (position < fileSize && !isCancelled) {
+                buffer.clear();
+                int read = sourceChannel.read(buffer, position);
+                if (read <= 0) break;
+                
+                buffer.flip();
+                long start = System.nanoTime();
+                writeAligned(destChannel, tailChannel, buffer, position, alignment);
+                recordWrite(read, start);
+                position += read;
+                addCopied(read);
+                
+                int progress = progressPercent();
+                updateProgress("Copying (bulk): " + source.getName(), progress);
+            }
+            setFinalSize(tailChannel, position);
+        }
+    }
+
+    private FileChannel openChannel(Path path, boolean direct, OpenOption... options) throws IOException {
+        if (direct) {
+            FileStore store = fileStoreOf(path);
+            if (store == null || !directIoUnsupported.contains(store)) {
+                Set<OpenOption> directOptions = new HashSet<>(Arrays.asList(options));
+                directOptions.add(ExtendedOpenOption.DIRECT);
+                try {
+                    return FileChannel.open(path, directOptions);
+                } catch (IOException | UnsupportedOperationException e) {
+                    if (store != null) {
+                        directIoUnsupported.add(store);
+                    }
+                    log("Direct I/O not available for " + path + ", using cached I/O");
+                }
+            }
+        }
+        return FileChannel.open(path, options);
+    }
+
+    private FileStore fileStoreOf(Path path) {
+        try {
+            Path existing = path.toAbsolutePath();
+            while (existing != null && !Files.exists(existing)) {
+                existing = existing.getParent();
+            }
+            return existing != null ? Files.getFileStore(existing) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private int ioAlignment(File source, File dest) {
+        int alignment = DEFAULT_IO_ALIGNMENT;
+        for (File file : new File[] { source, dest }) {
+            FileStore store = fileStoreOf(file.toPath());
+            try {
+                if (store != null) {
+                    alignment = (int) Math.max(alignment, store.getBlockSize());
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                // Keep the default alignment
+            }
+        }
+        return CHUNK_SIZE % alignment == 0 ? alignment : DEFAULT_IO_ALIGNMENT;
+    }
+
+    private ByteBuffer alignedBuffer(int alignment) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE + alignment).alignedSlice(alignment);
+        buffer.limit(CHUNK_SIZE);
+        return buffer.slice();
+    }
+
+    private long alignUp(long length, int alignment) {
+        return (length + alignment - 1) / alignment * alignment;
+    }
+
+    private void writeAligned(FileChannel channel, FileChannel tailChannel, ByteBuffer buffer,
+                              long position, int alignment) throws IOException {
+        // Direct I/O only accepts whole blocks; a trailing partial block goes through the cache
+        int aligned = buffer.remaining() / alignment * alignment;
+        ByteBuffer head = buffer.duplicate();
+        head.limit(head.position() + aligned);
+        writeChunk(channel, head, position);
+        
+        ByteBuffer tail = buffer.duplicate();
+        tail.position(tail.position() + aligned);
+        long tailPosition = position + aligned;
+        while (tail.hasRemaining()) {
+            tailPosition += tailChannel.write(tail, tailPosition);
         }
     }
 
     private void copyWithStreams(File source, File dest) throws IOException {
         try (FileInputStream fis = new FileInputStream(source);
-             FileOutputStream fos = new FileOutputStream(dest)) {
+             FileChannel destChannel = openDestination(dest)) {
             
-            byte[] buffer = new byte[1024 * 1024];
+            byte[] buffer = new byte[CHUNK_SIZE];
             int length;
             long fileBytesCopied = 0;
-            long fileSize = source.length();
             
             while ((length = fis.read(buffer)) > 0 && !isCancelled) {
-                fos.write(buffer, 0, length);
+                long start = System.nanoTime();
+                writeChunk(destChannel, ByteBuffer.wrap(buffer, 0, length), fileBytesCopied);
+                recordWrite(length, start);
                 fileBytesCopied += length;
-                bytesCopied += length;
+                addCopied(length);
                 
-                int progress = (int) ((bytesCopied * 100) / totalBytesToCopy);
+                int progress = progressPercent();
                 updateProgress("Copying: " + source.getName(), progress);
             }
+            setFinalSize(destChannel, fileBytesCopied);
         }
     }
 
@@ -528,22 +2220,74 @@ public class FileCopier {
         try (FileInputStream fis = new FileInputStream(source.getAbsolutePath());
              FileOutputStream fos = new FileOutputStream(dest.getAbsolutePath())) {
             
-            byte[] buffer = new byte[1024 * 1024];
+            FileChannel destChannel = fos.getChannel();
+            byte[] buffer = new byte[CHUNK_SIZE];
             int length;
             long fileBytesCopied = 0;
-            long fileSize = source.length();
             
             while ((length = fis.read(buffer)) > 0 && !isCancelled) {
-                fos.write(buffer, 0, length);
+                long start = System.nanoTime();
+                writeChunk(destChannel, ByteBuffer.wrap(buffer, 0, length), fileBytesCopied);
+                recordWrite(length, start);
                 fileBytesCopied += length;
-                bytesCopied += length;
+                addCopied(length);
                 
-                int progress = (int) ((bytesCopied * 100) / totalBytesToCopy);
+                int progress = progressPercent();
                 updateProgress("Copying (locked): " + source.getName(), progress);
             }
+            setFinalSize(destChannel, fileBytesCopied);
+        }
+    }
+
+    // Java has no portable way to reserve space for a file, so destinations grow as they are written.
+    // NTFS only keeps skipped zero blocks as holes in a file created as sparse, which an existing
+    // file opened for rewriting never is, so there the old copy is replaced by a new sparse file
+    private FileChannel openDestination(File dest) throws IOException {
+        Path path = dest.toPath();
+        if (sparseDetection && System.getProperty("os.name").toLowerCase().contains("win")) {
+            Files.deleteIfExists(path);
+            return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.SPARSE);
+        }
+        return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void setFinalSize(FileChannel channel, long size) throws IOException {
+        if (channel.size() > size) {
+            channel.truncate(size);
+        } else if (size > 0 && channel.size() < size) {
+            // Only a skipped zero block at the end leaves the file short; its last byte gives the
+            // file its size and keeps the rest of the block a hole
+            channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        }
+    }
+
+    private void writeChunk(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        // Blocks that are entirely zero are skipped, leaving a hole in the
+        // destination instead of materializing it
+        while (buffer.hasRemaining()) {
+            int blockLength = Math.min(SPARSE_BLOCK_SIZE, buffer.remaining());
+            ByteBuffer block = buffer.slice();
+            block.limit(blockLength);
+            
+            if (!sparseDetection || !isAllZero(block)) {
+                long writePosition = position;
+                while (block.hasRemaining()) {
+                    writePosition += channel.write(block, writePosition);
+                }
+            }
+            position += blockLength;
+            buffer.position(buffer.position() + blockLength);
         }
     }
 
+    private boolean isAllZero(ByteBuffer block) {
+        ByteBuffer zeros = ZERO_BLOCK.duplicate();
+        zeros.limit(block.remaining());
+        return block.mismatch(zeros) == -1;
+    }
+
     private void copyLockedFileWithForceClose(File source, File dest) throws IOException {
         // First try normal copy
         try {
@@ -591,8 +2335,9 @@ public class FileCopier {
                 };
 
                 // Run handle.exe to find locking process
-                Process handleProcess = Runtime.getRuntime().exec(cmd);
+                Process handleProcess = control.track(Runtime.getRuntime().exec(cmd));
                 String output = readProcessOutput(handleProcess);
+                control.waitFor(handleProcess);
 
                 // Parse the output to find PID
                 Optional<String> pid = Arrays.stream(output.split("\\r?\\n"))
@@ -602,9 +2347,9 @@ public class FileCopier {
 
                 if (pid.isPresent()) {
                     // Terminate the process
-                    Runtime.getRuntime().exec(new String[] {
+                    control.waitFor(control.track(Runtime.getRuntime().exec(new String[] {
                         "taskkill", "/F", "/PID", pid.get()
-                    }).waitFor();
+                    })));
                     log("Successfully terminated process PID: " + pid.get());
                     return true;
                 }
@@ -629,28 +2374,6 @@ public class FileCopier {
         return output.toString();
     }
 
-    private void copyDirectory(File source, File dest) throws IOException {
-        if (isCancelled) return;
-        
-        if (!dest.exists()) {
-            dest.mkdir();
-        }
-        
-        File[] files = source.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (isCancelled || shouldSkip(file) || isPriorityItem(file.getAbsolutePath())) continue;
-                
-                File destFile = new File(dest, file.getName());
-                if (file.isDirectory()) {
-                    copyDirectory(file, destFile);
-                } else {
-                    copySingleFile(file, destFile);
-                }
-            }
-        }
-    }
-
     private boolean isFileLocked(File file) {
         try {
             try (FileChannel channel = new FileOutputStream(file, true).getChannel()) {
@@ -664,8 +2387,9 @@ public class FileCopier {
 
     private void updateProgress(String currentFile, int progress) {
         if (progressUpdater != null) {
+            long copied = bytesCopied.get();
             SwingUtilities.invokeLater(() -> {
-                progressUpdater.updateProgress(currentFile, progress, bytesCopied, totalBytesToCopy);
+                progressUpdater.updateProgress(currentFile, progress, copied, totalBytesToCopy);
             });
         }
     }
@@ -678,10 +2402,28 @@ public class FileCopier {
         }
     }
 
-    private String formatSize(long bytes) {
+    static String formatSize(long bytes) {
         if (bytes < 1024) return bytes + " B";
         if (bytes < 1024 * 1024) return String.format("%.2f KB", bytes / 1024.0);
         if (bytes < 1024 * 1024 * 1024) return String.format("%.2f MB", bytes / (1024.0 * 1024));
         return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
     }
+
+    private static class Relocation {
+        final File source;
+        final File dest;
+        final File previousDest;
+        final FileIndex.Entry previous;
+        final long size;
+        final int priorityClass;
+
+        Relocation(File source, File dest, File previousDest, FileIndex.Entry previous, long size, int priorityClass) {
+            this.source = source;
+            this.dest = dest;
+            this.previousDest = previousDest;
+            this.previous = previous;
+            this.size = size;
+            this.priorityClass = priorityClass;
+        }
+    }
 }
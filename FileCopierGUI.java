@@ -3,11 +3,13 @@ package scheduledfilecopier;
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
 import java.text.*;
 import java.util.*;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.ProgressUpdater {
@@ -37,6 +39,7 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
     private javax.swing.JCheckBox lockedCheckbox;
     private javax.swing.JCheckBox forceCloseCheckbox;
     private javax.swing.JCheckBox vssCheckbox;
+    private javax.swing.JComboBox<String> snapshotCombo;
     private javax.swing.JTextArea logArea;
     private javax.swing.JProgressBar progressBar;
     private javax.swing.JLabel progressLabel;
@@ -44,6 +47,8 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
     private javax.swing.JTextField sourceField;
     private javax.swing.JButton startButton;
     private javax.swing.JButton stopButton;
+    private javax.swing.JButton pauseButton;
+    private volatile boolean cancelRequested;
     private javax.swing.JTextArea skipLocationsArea;
     private javax.swing.JTextArea priorityItemsArea;
     private javax.swing.JButton scheduleButton;
@@ -51,6 +56,38 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
     private javax.swing.JButton cancelScheduleButton;
     private javax.swing.JLabel nextRunLabel;
     private javax.swing.JButton rescheduleButton;
+    private javax.swing.JSpinner threadCountSpinner;
+    private javax.swing.JSpinner scanThreadsSpinner;
+    private javax.swing.JSpinner maxAttemptsSpinner;
+    private javax.swing.JSpinner pipelineDepthSpinner;
+    private javax.swing.JSpinner parallelThresholdSpinner;
+    private javax.swing.JSpinner parallelChunkSpinner;
+    private javax.swing.JCheckBox sparseCheckbox;
+    private javax.swing.JSpinner deltaThresholdSpinner;
+    private javax.swing.JSpinner directIoThresholdSpinner;
+    private javax.swing.JTextField copyRulesField;
+    private javax.swing.JCheckBox probeCopyCheckbox;
+    private javax.swing.JCheckBox mirrorCheckbox;
+    private javax.swing.JCheckBox dryRunCheckbox;
+    private javax.swing.JCheckBox identityCheckbox;
+    private javax.swing.JCheckBox preserveAttributesCheckbox;
+    private javax.swing.JCheckBox autoTuneCheckbox;
+    private javax.swing.JCheckBox backgroundCheckbox;
+    private javax.swing.JSpinner pauseLoadSpinner;
+    private String etaText = "";
+    private javax.swing.JTextField trashField;
+    private javax.swing.JTextField extraDestField;
+    private javax.swing.JComboBox<CopyQueue.OrderingPolicy> orderingCombo;
+    private javax.swing.JComboBox<Object> destinationTypeCombo;
+    private javax.swing.JSpinner archiveSegmentSpinner;
+    private javax.swing.JTextField s3EndpointField;
+    private javax.swing.JTextField s3RegionField;
+    private javax.swing.JCheckBox encryptCheckbox;
+    private javax.swing.JPasswordField passphraseField;
+    private javax.swing.JCheckBox decryptCheckbox;
+    private static final String FOLDER_DESTINATION = "Folder";
+    private static final String NO_SNAPSHOT = "off";
+    private static final String PASSPHRASE_VARIABLE = "FILECOPIER_PASSPHRASE";
 
     public FileCopierGUI() {
         initComponents();
@@ -65,8 +102,11 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         lockedCheckbox = new javax.swing.JCheckBox("Copy locked files (e.g., .pst)");
         forceCloseCheckbox = new javax.swing.JCheckBox("Force close applications locking files");
         vssCheckbox = new javax.swing.JCheckBox("Use Volume Shadow Copy (Admin required)");
+        snapshotCombo = new JComboBox<>(new String[] {NO_SNAPSHOT, SnapshotProvider.AUTO, "vss", "btrfs", "lvm", "links"});
+        snapshotCombo.setToolTipText("Copy from a point-in-time snapshot of the source, so busy files need no lock handling");
         startButton = new javax.swing.JButton("Start Copy");
         stopButton = new javax.swing.JButton("Stop");
+        pauseButton = new javax.swing.JButton("Pause");
         browseSource = new javax.swing.JButton("Browse...");
         browseDest = new javax.swing.JButton("Browse...");
         progressBar = new javax.swing.JProgressBar(0, 100);
@@ -94,9 +134,52 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         rescheduleButton.setEnabled(false);
         nextRunLabel = new javax.swing.JLabel("Next scheduled run: Not scheduled");
         dailyCheckbox = new JCheckBox("Repeat daily");
+        threadCountSpinner = new JSpinner(new SpinnerNumberModel(FileCopier.DEFAULT_THREAD_COUNT, 1, 32, 1));
+        orderingCombo = new JComboBox<>(CopyQueue.OrderingPolicy.values());
+        destinationTypeCombo = new JComboBox<>();
+        destinationTypeCombo.addItem(FOLDER_DESTINATION);
+        for (ArchiveSink.Format format : ArchiveSink.Format.values()) {
+            destinationTypeCombo.addItem(format);
+        }
+        archiveSegmentSpinner = new JSpinner(new SpinnerNumberModel(
+            (int) (FileCopier.DEFAULT_ARCHIVE_SEGMENT_SIZE / (1024 * 1024)), 1, 1024 * 1024, 256));
+        maxAttemptsSpinner = new JSpinner(new SpinnerNumberModel(FileCopier.DEFAULT_MAX_ATTEMPTS, 1, 20, 1));
+        scanThreadsSpinner = new JSpinner(new SpinnerNumberModel(FileCopier.DEFAULT_SCAN_THREADS, 1, 64, 1));
+        pipelineDepthSpinner = new JSpinner(new SpinnerNumberModel(FileCopier.DEFAULT_PIPELINE_DEPTH, 0, 16, 1));
+        parallelThresholdSpinner = new JSpinner(new SpinnerNumberModel(
+            (int) (FileCopier.DEFAULT_PARALLEL_CHUNK_THRESHOLD / (1024 * 1024)), 1, 1024 * 1024, 64));
+        sparseCheckbox = new JCheckBox("Keep sparse files sparse", true);
+        directIoThresholdSpinner = new JSpinner(new SpinnerNumberModel(
+            (int) (FileCopier.DEFAULT_DIRECT_IO_THRESHOLD / (1024 * 1024)), 0, 1024 * 1024, 256));
+        deltaThresholdSpinner = new JSpinner(new SpinnerNumberModel(
+            (int) (FileCopier.DEFAULT_DELTA_THRESHOLD / (1024 * 1024)), 0, 1024 * 1024, 64));
+        copyRulesField = new JTextField(30);
+        copyRulesField.setToolTipText("For example: size>=1G dst=cifs -> ranges; ext=.iso,.vhdx -> direct");
+        probeCopyCheckbox = new JCheckBox("Probe copy methods");
+        probeCopyCheckbox.setToolTipText("Try the methods a rule names on its first large files and keep the fastest");
+        mirrorCheckbox = new JCheckBox("Mirror (delete files removed from source)");
+        dryRunCheckbox = new JCheckBox("Dry run");
+        identityCheckbox = new JCheckBox("Detect moved and hard-linked files", true);
+        preserveAttributesCheckbox = new JCheckBox("Keep timestamps and permissions", true);
+        preserveAttributesCheckbox.setToolTipText("Copy modification times, permissions and owners, and skip files that have not changed");
+        autoTuneCheckbox = new JCheckBox("Auto-tune", true);
+        autoTuneCheckbox.setToolTipText("Adjust the number of threads to the destination while copying");
+        backgroundCheckbox = new JCheckBox("Background mode (slow down while the computer is busy)");
+        pauseLoadSpinner = new JSpinner(new SpinnerNumberModel(LoadGovernor.DEFAULT_PAUSE_LOAD, 0.1, 16.0, 0.1));
+        trashField = new JTextField(15);
+        s3EndpointField = new JTextField(15);
+        s3RegionField = new JTextField(S3Sink.DEFAULT_REGION, 8);
+        encryptCheckbox = new JCheckBox("Encrypt");
+        decryptCheckbox = new JCheckBox("Decrypt (restore an encrypted backup)");
+        // The passphrase is only kept in memory, never in the settings file; unattended runs can
+        // take it from the FILECOPIER_PASSPHRASE environment variable instead
+        passphraseField = new JPasswordField(12);
+        extraDestField = new JTextField(30);
+        parallelChunkSpinner = new JSpinner(new SpinnerNumberModel(FileCopier.DEFAULT_PARALLEL_CHUNK_COUNT, 1, 32, 1));
 
         logArea.setEditable(false);
         stopButton.setEnabled(false);
+        pauseButton.setEnabled(false);
         forceCloseCheckbox.setEnabled(false);
         priorityItemsArea.setLineWrap(true);
         skipLocationsArea.setLineWrap(true);
@@ -113,8 +196,9 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
             }
         });
 
-        startButton.addActionListener(e -> startButtonActionPerformed());
+        startButton.addActionListener(e -> startButtonActionPerformed(false));
         stopButton.addActionListener(e -> stopButtonActionPerformed());
+        pauseButton.addActionListener(e -> pauseButtonActionPerformed());
         browseSource.addActionListener(e -> browseSourceActionPerformed());
         browseDest.addActionListener(e -> browseDestActionPerformed());
         saveButton.addActionListener(e -> saveButtonActionPerformed());
@@ -152,23 +236,96 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         panel.add(vssCheckbox, gbc);
 
         gbc.gridy = 5;
+        JPanel optionsPanel = new JPanel(new GridLayout(0, 1));
+        JPanel snapshotOptions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        snapshotOptions.add(new JLabel("Snapshot:"));
+        snapshotOptions.add(snapshotCombo);
+        optionsPanel.add(snapshotOptions);
+        JPanel queueOptions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        queueOptions.add(new JLabel("Copy threads:"));
+        queueOptions.add(threadCountSpinner);
+        queueOptions.add(autoTuneCheckbox);
+        queueOptions.add(new JLabel("Order:"));
+        queueOptions.add(orderingCombo);
+        queueOptions.add(new JLabel("Read-ahead buffers:"));
+        queueOptions.add(pipelineDepthSpinner);
+        queueOptions.add(new JLabel("Scan threads:"));
+        queueOptions.add(scanThreadsSpinner);
+        queueOptions.add(new JLabel("Attempts per file:"));
+        queueOptions.add(maxAttemptsSpinner);
+        optionsPanel.add(queueOptions);
+        JPanel largeFileOptions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        largeFileOptions.add(new JLabel("Split files over (MB):"));
+        largeFileOptions.add(parallelThresholdSpinner);
+        largeFileOptions.add(new JLabel("Parallel ranges:"));
+        largeFileOptions.add(parallelChunkSpinner);
+        largeFileOptions.add(new JLabel("Delta copy files over (MB, 0 = off):"));
+        largeFileOptions.add(deltaThresholdSpinner);
+        largeFileOptions.add(sparseCheckbox);
+        optionsPanel.add(largeFileOptions);
+        JPanel cacheOptions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        cacheOptions.add(new JLabel("Bypass OS cache for files over (MB, 0 = off):"));
+        cacheOptions.add(directIoThresholdSpinner);
+        optionsPanel.add(cacheOptions);
+        JPanel copyRuleOptions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        copyRuleOptions.add(new JLabel("Copy rules (separate with ;):"));
+        copyRuleOptions.add(copyRulesField);
+        copyRuleOptions.add(probeCopyCheckbox);
+        optionsPanel.add(copyRuleOptions);
+        JPanel backgroundOptions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        backgroundOptions.add(backgroundCheckbox);
+        backgroundOptions.add(new JLabel("Pause above load per CPU:"));
+        backgroundOptions.add(pauseLoadSpinner);
+        optionsPanel.add(backgroundOptions);
+        JPanel mirrorOptions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        mirrorOptions.add(mirrorCheckbox);
+        mirrorOptions.add(dryRunCheckbox);
+        mirrorOptions.add(new JLabel("Trash folder:"));
+        mirrorOptions.add(trashField);
+        mirrorOptions.add(identityCheckbox);
+        mirrorOptions.add(preserveAttributesCheckbox);
+        optionsPanel.add(mirrorOptions);
+        JPanel extraDestOptions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        extraDestOptions.add(new JLabel("Also copy to (separate with ;):"));
+        extraDestOptions.add(extraDestField);
+        extraDestOptions.add(new JLabel("Destination type:"));
+        extraDestOptions.add(destinationTypeCombo);
+        extraDestOptions.add(new JLabel("Archive segment (MB):"));
+        extraDestOptions.add(archiveSegmentSpinner);
+        optionsPanel.add(extraDestOptions);
+        // Used when the destination is s3://bucket/prefix; keys come from AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY
+        JPanel s3Options = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        s3Options.add(new JLabel("S3 endpoint (blank for AWS):"));
+        s3Options.add(s3EndpointField);
+        s3Options.add(new JLabel("Region:"));
+        s3Options.add(s3RegionField);
+        optionsPanel.add(s3Options);
+        JPanel encryptionOptions = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        encryptionOptions.add(encryptCheckbox);
+        encryptionOptions.add(decryptCheckbox);
+        encryptionOptions.add(new JLabel("Passphrase:"));
+        encryptionOptions.add(passphraseField);
+        optionsPanel.add(encryptionOptions);
+        panel.add(optionsPanel, gbc);
+
+        gbc.gridy = 6;
         panel.add(jLabel3, gbc);
 
-        gbc.gridy = 6; gbc.fill = GridBagConstraints.BOTH; gbc.weighty = 1;
+        gbc.gridy = 7; gbc.fill = GridBagConstraints.BOTH; gbc.weighty = 1;
         panel.add(jScrollPane3, gbc);
         gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weighty = 0;
 
-        gbc.gridy = 7;
+        gbc.gridy = 8;
         panel.add(jLabel4, gbc);
 
-        gbc.gridy = 8; gbc.fill = GridBagConstraints.BOTH; gbc.weighty = 1;
+        gbc.gridy = 9; gbc.fill = GridBagConstraints.BOTH; gbc.weighty = 1;
         panel.add(jScrollPane2, gbc);
         gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weighty = 0;
 
-        gbc.gridy = 9;
+        gbc.gridy = 10;
         panel.add(new JSeparator(), gbc);
 
-        gbc.gridy = 10;
+        gbc.gridy = 11;
         JPanel schedulePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         schedulePanel.add(jLabel5);
         schedulePanel.add(timeSpinner);
@@ -178,29 +335,30 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         schedulePanel.add(dailyCheckbox);
         panel.add(schedulePanel, gbc);
         
-        gbc.gridy = 11;
+        gbc.gridy = 12;
         panel.add(nextRunLabel, gbc);
         
-        gbc.gridy = 12;
+        gbc.gridy = 13;
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         buttonPanel.add(startButton);
+        buttonPanel.add(pauseButton);
         buttonPanel.add(stopButton);
         buttonPanel.add(saveButton);
         panel.add(buttonPanel, gbc);
 
-        gbc.gridy = 13;
+        gbc.gridy = 14;
         panel.add(currentFileLabel, gbc);
 
-        gbc.gridy = 14;
+        gbc.gridy = 15;
         panel.add(progressBar, gbc);
 
-        gbc.gridy = 15;
+        gbc.gridy = 16;
         JPanel progressPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         progressPanel.add(progressLabel);
         progressPanel.add(bytesLabel);
         panel.add(progressPanel, gbc);
 
-        gbc.gridy = 16; gbc.fill = GridBagConstraints.BOTH; gbc.weighty = 1;
+        gbc.gridy = 17; gbc.fill = GridBagConstraints.BOTH; gbc.weighty = 1;
         panel.add(jScrollPane1, gbc);
 
         add(panel);
@@ -227,6 +385,14 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         nextRunLabel.setText("Next scheduled run: " + scheduledTime);
         log("Copy scheduled for " + scheduledTime + (dailySchedule ? " (Daily)" : ""));
         
+        // Let the user check the job fits the maintenance window
+        long typical = FileCopier.loadHistory().typicalDurationMillis(
+            RunHistory.jobKey(sourceField.getText(), destField.getText()));
+        if (typical > 0) {
+            log("Based on previous runs it should take about " + RunHistory.formatDuration(typical)
+                + " and finish around " + new SimpleDateFormat("HH:mm").format(new Date(scheduledTime.getTime() + typical)));
+        }
+        
         saveSettings();
     }
 
@@ -253,7 +419,7 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
             public void run() {
                 SwingUtilities.invokeLater(() -> {
                     log("Scheduled copy started at " + new Date());
-                    startButtonActionPerformed();
+                    startButtonActionPerformed(true);
                 });
                 
                 if (dailySchedule && scheduleTimer != null) {
@@ -298,34 +464,58 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         saveSettings();
     }
 
-    private void startButtonActionPerformed() {
+    // A scheduled run has nobody to answer a dialog, so what stops it goes to the log as an error
+    private void startButtonActionPerformed(boolean scheduled) {
         String source = sourceField.getText();
         String dest = destField.getText();
         boolean copyLocked = lockedCheckbox.isSelected();
         boolean forceClose = forceCloseCheckbox.isSelected();
         boolean useVSS = vssCheckbox.isSelected();
+        String snapshotProvider = NO_SNAPSHOT.equals(snapshotCombo.getSelectedItem()) ? null : (String) snapshotCombo.getSelectedItem();
+        int threadCount = (Integer) threadCountSpinner.getValue();
+        int pipelineDepth = (Integer) pipelineDepthSpinner.getValue();
+        int scanThreads = (Integer) scanThreadsSpinner.getValue();
+        int maxAttempts = (Integer) maxAttemptsSpinner.getValue();
+        long parallelThreshold = ((Integer) parallelThresholdSpinner.getValue()) * 1024L * 1024L;
+        int parallelChunks = (Integer) parallelChunkSpinner.getValue();
+        boolean sparseDetection = sparseCheckbox.isSelected();
+        long deltaThreshold = ((Integer) deltaThresholdSpinner.getValue()) * 1024L * 1024L;
+        long directIoThreshold = ((Integer) directIoThresholdSpinner.getValue()) * 1024L * 1024L;
+        boolean mirrorMode = mirrorCheckbox.isSelected();
+        boolean dryRun = dryRunCheckbox.isSelected();
+        boolean trackFileIdentity = identityCheckbox.isSelected();
+        boolean preserveAttributes = preserveAttributesCheckbox.isSelected();
+        boolean adaptiveTuning = autoTuneCheckbox.isSelected();
+        boolean backgroundMode = backgroundCheckbox.isSelected();
+        double pauseLoad = (Double) pauseLoadSpinner.getValue();
+        String trashFolder = trashField.getText();
+        final List<String> additionalDestinations = Arrays.stream(extraDestField.getText().split(";"))
+            .map(String::trim)
+            .filter(path -> !path.isEmpty())
+            .collect(Collectors.toList());
+        final List<String> copyRules = Arrays.stream(copyRulesField.getText().split(";"))
+            .map(String::trim)
+            .filter(rule -> !rule.isEmpty())
+            .collect(Collectors.toList());
+        boolean probeCopyStrategies = probeCopyCheckbox.isSelected();
+        CopyQueue.OrderingPolicy orderingPolicy = (CopyQueue.OrderingPolicy) orderingCombo.getSelectedItem();
+        Object destinationType = destinationTypeCombo.getSelectedItem();
+        ArchiveSink.Format archiveFormat = destinationType instanceof ArchiveSink.Format
+            ? (ArchiveSink.Format) destinationType
+            : null;
+        long archiveSegmentSize = ((Integer) archiveSegmentSpinner.getValue()) * 1024L * 1024L;
+        String s3Endpoint = s3EndpointField.getText().trim();
+        String s3Region = s3RegionField.getText().trim();
+        boolean decryptRestore = decryptCheckbox.isSelected();
+        char[] passphrase = encryptCheckbox.isSelected() || decryptRestore ? passphrase() : null;
         
         if (source.isEmpty() || dest.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please specify source and destination paths");
+            refuseStart("Please specify source and destination paths", scheduled);
             return;
         }
-        
-        if (source.toLowerCase().endsWith(".pst") || (new File(source).isDirectory() && containsPstFiles(new File(source)))) {
-            int result = JOptionPane.showConfirmDialog(this,
-                "<html><b>Outlook PST File Detected</b><br><br>" +
-                "For successful copying:<ol>" +
-                "<li>Close Outlook completely (check Task Manager)</li>" +
-                "<li>Run this program as Administrator</li>" +
-                "<li>Enable 'Use Volume Shadow Copy'</li>" +
-                "<li>Disable Outlook Add-ins if issues persist</li></ol>" +
-                "Continue with copy operation?</html>",
-                "PST File Warning",
-                JOptionPane.YES_NO_OPTION,
-                JOptionPane.WARNING_MESSAGE);
-            
-            if (result != JOptionPane.YES_OPTION) {
-                return;
-            }
+        if (passphrase != null && passphrase.length == 0) {
+            refuseStart("Please enter the encryption passphrase, or set " + PASSPHRASE_VARIABLE, scheduled);
+            return;
         }
         
         final List<String> priorityItems = Arrays.stream(
@@ -343,20 +533,52 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         SwingUtilities.invokeLater(() -> {
             progressBar.setValue(0);
             currentFileLabel.setText("Preparing to copy...");
+            etaText = "";
             progressLabel.setText("0%");
             bytesLabel.setText("0 B / 0 B");
             log("Starting copy operation...");
             
             startButton.setEnabled(false);
             stopButton.setEnabled(true);
+            pauseButton.setText("Pause");
+            pauseButton.setEnabled(true);
             saveButton.setEnabled(false);
             scheduleButton.setEnabled(false);
         });
         
+        cancelRequested = false;
         new Thread(() -> {
             try {
                 fileCopier = new FileCopier(source, dest, copyLocked, forceClose, useVSS, 
                                           priorityItems, skipLocations, this);
+                fileCopier.setThreadCount(threadCount);
+                fileCopier.setOrderingPolicy(orderingPolicy);
+                fileCopier.setPipelineDepth(pipelineDepth);
+                fileCopier.setScanThreads(scanThreads);
+                fileCopier.setMaxAttempts(maxAttempts);
+                fileCopier.setAdaptiveTuning(adaptiveTuning);
+                fileCopier.setBackgroundMode(backgroundMode);
+                fileCopier.setBackgroundLoadLimits(Math.min(LoadGovernor.DEFAULT_TARGET_LOAD, pauseLoad / 2), pauseLoad);
+                fileCopier.setParallelChunkThreshold(parallelThreshold);
+                fileCopier.setParallelChunkCount(parallelChunks);
+                fileCopier.setSparseDetection(sparseDetection);
+                fileCopier.setDeltaThreshold(deltaThreshold);
+                fileCopier.setDirectIoThreshold(directIoThreshold);
+                fileCopier.setCopyRules(copyRules);
+                fileCopier.setProbeCopyStrategies(probeCopyStrategies);
+                fileCopier.setMirrorMode(mirrorMode);
+                fileCopier.setDryRun(dryRun);
+                fileCopier.setTrashFolder(trashFolder);
+                fileCopier.setTrackFileIdentity(trackFileIdentity);
+                fileCopier.setPreserveAttributes(preserveAttributes);
+                fileCopier.setSnapshotProvider(snapshotProvider);
+                fileCopier.setAdditionalDestinations(additionalDestinations);
+                fileCopier.setArchiveFormat(archiveFormat);
+                fileCopier.setArchiveSegmentSize(archiveSegmentSize);
+                fileCopier.setS3Endpoint(s3Endpoint);
+                fileCopier.setS3Region(s3Region);
+                fileCopier.setEncryptionPassphrase(passphrase);
+                fileCopier.setDecryptRestore(decryptRestore);
                 fileCopier.startCopy();
                 log("Copy completed successfully!");
             } catch (Exception ex) {
@@ -373,6 +595,8 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
                 SwingUtilities.invokeLater(() -> {
                     startButton.setEnabled(true);
                     stopButton.setEnabled(false);
+                    pauseButton.setText("Pause");
+                    pauseButton.setEnabled(false);
                     saveButton.setEnabled(true);
                     if (scheduleTimer == null) {
                         scheduleButton.setEnabled(true);
@@ -382,30 +606,27 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         }).start();
     }
 
-    private boolean containsPstFiles(File directory) {
-        if (!directory.isDirectory()) return false;
-        
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    if (containsPstFiles(file)) return true;
-                } else if (file.getName().toLowerCase().endsWith(".pst")) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
     private void stopButtonActionPerformed() {
         if (fileCopier != null) {
+            cancelRequested = true;
             fileCopier.cancelCopy();
             stopButton.setEnabled(false);
+            pauseButton.setEnabled(false);
             log("Copy operation cancelled by user");
         }
     }
 
+    private void pauseButtonActionPerformed() {
+        if (fileCopier == null) return;
+        if (fileCopier.isPaused()) {
+            fileCopier.resumeCopy();
+            pauseButton.setText("Pause");
+        } else {
+            fileCopier.pauseCopy();
+            pauseButton.setText("Resume");
+        }
+    }
+
     private void saveSettings() {
         Properties props = new Properties();
         props.setProperty("source", sourceField.getText());
@@ -413,9 +634,39 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         props.setProperty("copyLocked", Boolean.toString(lockedCheckbox.isSelected()));
         props.setProperty("forceClose", Boolean.toString(forceCloseCheckbox.isSelected()));
         props.setProperty("useVSS", Boolean.toString(vssCheckbox.isSelected()));
+        props.setProperty("snapshotProvider", (String) snapshotCombo.getSelectedItem());
         props.setProperty("priorityItems", priorityItemsArea.getText().replace("\n", "|||"));
         props.setProperty("skipLocations", skipLocationsArea.getText().replace("\n", "|||"));
         props.setProperty("dailySchedule", Boolean.toString(dailyCheckbox.isSelected()));
+        props.setProperty("threadCount", threadCountSpinner.getValue().toString());
+        props.setProperty("pipelineDepth", pipelineDepthSpinner.getValue().toString());
+        props.setProperty("scanThreads", scanThreadsSpinner.getValue().toString());
+        props.setProperty("maxAttempts", maxAttemptsSpinner.getValue().toString());
+        props.setProperty("adaptiveTuning", Boolean.toString(autoTuneCheckbox.isSelected()));
+        props.setProperty("copyRules", copyRulesField.getText());
+        props.setProperty("probeCopyStrategies", Boolean.toString(probeCopyCheckbox.isSelected()));
+        props.setProperty("backgroundMode", Boolean.toString(backgroundCheckbox.isSelected()));
+        props.setProperty("pauseLoad", pauseLoadSpinner.getValue().toString());
+        props.setProperty("parallelThresholdMB", parallelThresholdSpinner.getValue().toString());
+        props.setProperty("parallelChunks", parallelChunkSpinner.getValue().toString());
+        props.setProperty("sparseDetection", Boolean.toString(sparseCheckbox.isSelected()));
+        props.setProperty("deltaThresholdMB", deltaThresholdSpinner.getValue().toString());
+        props.setProperty("directIoThresholdMB", directIoThresholdSpinner.getValue().toString());
+        props.setProperty("mirrorMode", Boolean.toString(mirrorCheckbox.isSelected()));
+        props.setProperty("dryRun", Boolean.toString(dryRunCheckbox.isSelected()));
+        props.setProperty("trashFolder", trashField.getText());
+        props.setProperty("trackFileIdentity", Boolean.toString(identityCheckbox.isSelected()));
+        props.setProperty("preserveAttributes", Boolean.toString(preserveAttributesCheckbox.isSelected()));
+        props.setProperty("additionalDestinations", extraDestField.getText());
+        props.setProperty("orderingPolicy", ((CopyQueue.OrderingPolicy) orderingCombo.getSelectedItem()).name());
+        Object destinationType = destinationTypeCombo.getSelectedItem();
+        props.setProperty("destinationType",
+            destinationType instanceof ArchiveSink.Format ? ((ArchiveSink.Format) destinationType).name() : "");
+        props.setProperty("archiveSegmentMB", archiveSegmentSpinner.getValue().toString());
+        props.setProperty("s3Endpoint", s3EndpointField.getText());
+        props.setProperty("s3Region", s3RegionField.getText());
+        props.setProperty("encrypt", Boolean.toString(encryptCheckbox.isSelected()));
+        props.setProperty("decryptRestore", Boolean.toString(decryptCheckbox.isSelected()));
         
         if (scheduledTime != null) {
             props.setProperty("scheduledTime", Long.toString(scheduledTime.getTime()));
@@ -447,7 +698,55 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
             lockedCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("copyLocked", "false")));
             forceCloseCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("forceClose", "false")));
             vssCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("useVSS", "false")));
+            snapshotCombo.setSelectedItem(props.getProperty("snapshotProvider", NO_SNAPSHOT));
             dailyCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("dailySchedule", "false")));
+            threadCountSpinner.setValue(intSetting(props, "threadCount", FileCopier.DEFAULT_THREAD_COUNT));
+            pipelineDepthSpinner.setValue(intSetting(props, "pipelineDepth", FileCopier.DEFAULT_PIPELINE_DEPTH));
+            scanThreadsSpinner.setValue(intSetting(props, "scanThreads", FileCopier.DEFAULT_SCAN_THREADS));
+            maxAttemptsSpinner.setValue(intSetting(props, "maxAttempts", FileCopier.DEFAULT_MAX_ATTEMPTS));
+            parallelThresholdSpinner.setValue(intSetting(props, "parallelThresholdMB",
+                (int) (FileCopier.DEFAULT_PARALLEL_CHUNK_THRESHOLD / (1024 * 1024))));
+            sparseCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("sparseDetection", "true")));
+            directIoThresholdSpinner.setValue(intSetting(props, "directIoThresholdMB",
+                (int) (FileCopier.DEFAULT_DIRECT_IO_THRESHOLD / (1024 * 1024))));
+            deltaThresholdSpinner.setValue(intSetting(props, "deltaThresholdMB",
+                (int) (FileCopier.DEFAULT_DELTA_THRESHOLD / (1024 * 1024))));
+            mirrorCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("mirrorMode", "false")));
+            dryRunCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("dryRun", "false")));
+            trashField.setText(props.getProperty("trashFolder", ""));
+            identityCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("trackFileIdentity", "true")));
+            preserveAttributesCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("preserveAttributes", "true")));
+            autoTuneCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("adaptiveTuning", "true")));
+            copyRulesField.setText(props.getProperty("copyRules", ""));
+            probeCopyCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("probeCopyStrategies", "false")));
+            backgroundCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("backgroundMode", "false")));
+            pauseLoadSpinner.setValue(doubleSetting(props, "pauseLoad", LoadGovernor.DEFAULT_PAUSE_LOAD));
+            extraDestField.setText(props.getProperty("additionalDestinations", ""));
+            parallelChunkSpinner.setValue(intSetting(props, "parallelChunks", FileCopier.DEFAULT_PARALLEL_CHUNK_COUNT));
+            try {
+                orderingCombo.setSelectedItem(CopyQueue.OrderingPolicy.valueOf(
+                    props.getProperty("orderingPolicy", CopyQueue.OrderingPolicy.LISTING.name())));
+            } catch (IllegalArgumentException ex) {
+                orderingCombo.setSelectedItem(CopyQueue.OrderingPolicy.LISTING);
+            }
+            try {
+                String destinationType = props.getProperty("destinationType", "");
+                destinationTypeCombo.setSelectedItem(destinationType.isEmpty()
+                    ? FOLDER_DESTINATION
+                    : ArchiveSink.Format.valueOf(destinationType));
+            } catch (IllegalArgumentException ex) {
+                destinationTypeCombo.setSelectedItem(FOLDER_DESTINATION);
+            }
+            archiveSegmentSpinner.setValue(intSetting(props, "archiveSegmentMB",
+                (int) (FileCopier.DEFAULT_ARCHIVE_SEGMENT_SIZE / (1024 * 1024))));
+            s3EndpointField.setText(props.getProperty("s3Endpoint", ""));
+            s3RegionField.setText(props.getProperty("s3Region", S3Sink.DEFAULT_REGION));
+            encryptCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("encrypt", "false")));
+            decryptCheckbox.setSelected(Boolean.parseBoolean(props.getProperty("decryptRestore", "false")));
+            if ((encryptCheckbox.isSelected() || decryptCheckbox.isSelected()) && System.getenv(PASSPHRASE_VARIABLE) == null) {
+                log("Encryption is on: enter the passphrase, or set " + PASSPHRASE_VARIABLE
+                    + ", before the next scheduled copy");
+            }
             
             boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
             forceCloseCheckbox.setEnabled(lockedCheckbox.isSelected());
@@ -487,18 +786,74 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         }
     }
 
+    // A malformed number falls back to its default instead of stopping the rest of the settings loading
+    private int intSetting(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            log("Ignoring invalid setting " + key + "=" + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private double doubleSetting(Properties props, String key, double defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException ex) {
+            log("Ignoring invalid setting " + key + "=" + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     @Override
     public void updateProgress(String currentFile, int progress, long bytesCopied, long totalBytes) {
         SwingUtilities.invokeLater(() -> {
             currentFileLabel.setText(currentFile);
             progressBar.setValue(progress);
-            progressLabel.setText(progress + "%");
+            progressLabel.setText(progress + "%" + etaText);
             
             String bytesText = formatSize(bytesCopied) + " / " + formatSize(totalBytes);
             bytesLabel.setText(bytesText);
         });
     }
 
+    @Override
+    public void updateEta(long remainingMillis) {
+        etaText = remainingMillis >= 0 ? " - about " + RunHistory.formatDuration(remainingMillis) + " left" : "";
+        progressLabel.setText(progressBar.getValue() + "%" + etaText);
+    }
+
+    @Override
+    public boolean confirmPreflight(ScanSummary summary) {
+        // PST files are only found by the background scan, so ask from the copy thread
+        List<File> pstFiles = summary.pstFiles();
+        AtomicInteger result = new AtomicInteger(JOptionPane.NO_OPTION);
+        try {
+            SwingUtilities.invokeAndWait(() -> result.set(JOptionPane.showConfirmDialog(this,
+                "<html><b>Outlook PST File Detected</b><br><br>" +
+                pstFiles.size() + (pstFiles.size() > 1 ? " PST files were" : " PST file was") +
+                " found, e.g. " + pstFiles.get(0).getName() + "<br><br>" +
+                "For successful copying:<ol>" +
+                "<li>Close Outlook completely (check Task Manager)</li>" +
+                "<li>Run this program as Administrator</li>" +
+                "<li>Enable 'Use Volume Shadow Copy'</li>" +
+                "<li>Disable Outlook Add-ins if issues persist</li></ol>" +
+                "Continue with copy operation?</html>",
+                "PST File Warning",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            logError("Could not show PST warning: " + e.getCause());
+        }
+        return result.get() == JOptionPane.YES_OPTION;
+    }
+
     @Override
     public void logMessage(String message) {
         SwingUtilities.invokeLater(() -> {
@@ -511,6 +866,21 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
         logMessage(new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss] ").format(new Date()) + message);
     }
 
+    private void refuseStart(String message, boolean scheduled) {
+        if (scheduled) {
+            logError("Scheduled copy did not run: " + message);
+        } else {
+            JOptionPane.showMessageDialog(this, message);
+        }
+    }
+
+    // The field, or for unattended runs after a restart the environment, as with the S3 keys
+    private char[] passphrase() {
+        char[] typed = passphraseField.getPassword();
+        String variable = System.getenv(PASSPHRASE_VARIABLE);
+        return typed.length == 0 && variable != null ? variable.toCharArray() : typed;
+    }
+
     private void logError(String message) {
         SwingUtilities.invokeLater(() -> {
             logArea.append(new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss] ERROR: ").format(new Date()) + message + "\n");
@@ -520,7 +890,7 @@ public class FileCopierGUI extends javax.swing.JFrame implements FileCopier.Prog
 
     @Override
     public boolean isCancelled() {
-        return stopButton.isEnabled() && !startButton.isEnabled();
+        return cancelRequested;
     }
 
     private String formatSize(long bytes) {
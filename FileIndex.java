@@ -0,0 +1,311 @@
+package scheduledfilecopier;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Which source inode each destination file was copied from. The last run's index is held as arrays of
+// device, inode and the entry's offset in the index file with an open-addressing table over them, about
+// 40 bytes per file, and an entry is only read back for an inode seen again. This run's identities go
+// straight to a new index file; only hard-linked files are kept in memory, to link their other names
+public class FileIndex {
+
+    public static class Identity {
+        public final long device;
+        public final long inode;
+        public final int links;
+        public final long size;
+        public final long lastModified;
+
+        Identity(long device, long inode, int links, long size, long lastModified) {
+            this.device = device;
+            this.inode = inode;
+            this.links = links;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        // Null if the file can't be read, or its file system has no inodes (e.g. Windows)
+        public static Identity read(File file) {
+            try {
+                Map<String, Object> attrs = Files.readAttributes(file.toPath(), "unix:dev,ino,nlink,size,lastModifiedTime");
+                return new Identity((Long) attrs.get("dev"), (Long) attrs.get("ino"), (Integer) attrs.get("nlink"),
+                    (Long) attrs.get("size"), ((FileTime) attrs.get("lastModifiedTime")).toMillis());
+            } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        public boolean sameFile(Identity other) {
+            return other != null && device == other.device && inode == other.inode;
+        }
+    }
+
+    public static class Entry {
+        public final String sourcePath;
+        public final String destPath;
+        public final long size;
+        public final long lastModified;
+        public final long destModified;
+
+        public Entry(String sourcePath, String destPath, long size, long lastModified, long destModified) {
+            this.sourcePath = sourcePath;
+            this.destPath = destPath;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.destModified = destModified;
+        }
+    }
+
+    private static final class Key {
+        final long device;
+        final long inode;
+
+        Key(Identity identity) {
+            this.device = identity.device;
+            this.inode = identity.inode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).device == device && ((Key) other).inode == inode;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(device) * 31 + Long.hashCode(inode);
+        }
+    }
+
+    private static final String HEADER = "# filecopier index v2";
+
+    private final File file;
+    private final File next;
+    private long[] devices = new long[0];
+    private long[] inodes = new long[0];
+    private long[] offsets = new long[0];
+    private int[] slots = new int[0];
+    private int count;
+    private RandomAccessFile previousEntries;
+    private BufferedWriter writer;
+    private final Map<Key, File> linkTargets = new ConcurrentHashMap<>();
+
+    private FileIndex(File file) {
+        this.file = file;
+        this.next = new File(file.getParentFile(), file.getName() + ".tmp");
+    }
+
+    public static FileIndex load(File file) {
+        FileIndex index = new FileIndex(file);
+        if (!file.isFile()) return index;
+
+        try (InputStream in = new FileInputStream(file)) {
+            // Only the leading device and inode are kept; the rest of a line is read back on a match
+            byte[] block = new byte[64 * 1024];
+            byte[] line = new byte[64];
+            int length = 0;
+            long offset = 0;
+            long lineOffset = 0;
+            boolean header = true;
+            int read;
+            while ((read = in.read(block)) > 0) {
+                for (int i = 0; i < read; i++, offset++) {
+                    if (block[i] != '\n') {
+                        if (length < line.length) line[length++] = block[i];
+                        continue;
+                    }
+                    if (header) {
+                        if (!HEADER.equals(new String(line, 0, length, StandardCharsets.UTF_8))) return index;
+                        header = false;
+                    } else {
+                        index.addLine(line, length, lineOffset);
+                    }
+                    length = 0;
+                    lineOffset = offset + 1;
+                }
+            }
+            index.buildSlots();
+            index.previousEntries = new RandomAccessFile(file, "r");
+        } catch (IOException e) {
+            index.count = 0;
+        }
+        return index;
+    }
+
+    // Whether files below this folder have identities to track
+    public static boolean hasIdentities(File directory) {
+        try {
+            Files.readAttributes(directory.toPath(), "unix:ino");
+            return true;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return false;
+        } catch (IOException e) {
+            // Unreadable; the files below report their own errors
+            return true;
+        }
+    }
+
+    public synchronized Entry previous(Identity identity) {
+        if (slots.length == 0) return null;
+        int mask = slots.length - 1;
+        for (int slot = hash(identity.device, identity.inode) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int i = slots[slot] - 1;
+            if (devices[i] == identity.device && inodes[i] == identity.inode) {
+                return readEntry(offsets[i]);
+            }
+        }
+        return null;
+    }
+
+    // Returns the destination already chosen for this hard-linked file in this run, or null if dest is the first
+    public File claimLinkTarget(Identity identity, File dest) {
+        if (identity.links < 2) return null;
+        return linkTargets.putIfAbsent(new Key(identity), dest);
+    }
+
+    public synchronized void record(Identity identity, Entry entry) throws IOException {
+        if (!isStorable(entry.sourcePath) || !isStorable(entry.destPath)) return;
+        openWriter();
+        writer.write(identity.device + "\t" + identity.inode + "\t" + entry.sourcePath + "\t" + entry.destPath + "\t"
+            + entry.size + "\t" + entry.lastModified + "\t" + entry.destModified);
+        // A bare newline on every platform, which the offsets taken at load count on
+        writer.write('\n');
+    }
+
+    // Replaces the last run's index with this run's
+    public synchronized void save() throws IOException {
+        openWriter();
+        writer.close();
+        writer = null;
+        closePrevious();
+        Files.move(next.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Keeps the last run's index, e.g. after a cancel or a dry run
+    public synchronized void close() {
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+                Files.deleteIfExists(next.toPath());
+            }
+        } catch (IOException e) {
+            // A stale temp file is overwritten by the next run
+        }
+        closePrevious();
+    }
+
+    private void openWriter() throws IOException {
+        if (writer != null) return;
+        File parent = file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(next), StandardCharsets.UTF_8));
+        writer.write(HEADER);
+        writer.write('\n');
+    }
+
+    private void closePrevious() {
+        if (previousEntries == null) return;
+        try {
+            previousEntries.close();
+        } catch (IOException e) {
+            // Only read from
+        }
+        previousEntries = null;
+    }
+
+    private Entry readEntry(long offset) {
+        if (previousEntries == null) return null;
+        try {
+            previousEntries.seek(offset);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = previousEntries.read(buffer)) > 0) {
+                int end = 0;
+                while (end < read && buffer[end] != '\n') end++;
+                line.write(buffer, 0, end);
+                if (end < read) break;
+            }
+            String[] fields = line.toString(StandardCharsets.UTF_8.name()).split("\t");
+            if (fields.length != 7) return null;
+            return new Entry(fields[2], fields[3], Long.parseLong(fields[4]), Long.parseLong(fields[5]),
+                Long.parseLong(fields[6]));
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void addLine(byte[] line, int length, long offset) {
+        int tab = indexOf(line, 0, length);
+        int secondTab = tab < 0 ? -1 : indexOf(line, tab + 1, length);
+        if (secondTab < 0) return;
+        try {
+            add(parseLong(line, 0, tab), parseLong(line, tab + 1, secondTab), offset);
+        } catch (NumberFormatException e) {
+            // Ignore damaged lines; the file is simply copied again
+        }
+    }
+
+    private void add(long device, long inode, long offset) {
+        if (count == devices.length) {
+            int capacity = Math.max(1024, count * 2);
+            devices = Arrays.copyOf(devices, capacity);
+            inodes = Arrays.copyOf(inodes, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        devices[count] = device;
+        inodes[count] = inode;
+        offsets[count] = offset;
+        count++;
+    }
+
+    // Slots hold entry numbers plus one and are never more than half full
+    private void buildSlots() {
+        if (count == 0) return;
+        slots = new int[Integer.highestOneBit(count) * 4];
+        int mask = slots.length - 1;
+        for (int i = 0; i < count; i++) {
+            int slot = hash(devices[i], inodes[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    private static int hash(long device, long inode) {
+        long h = (device * 31 + inode) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int indexOf(byte[] line, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (line[i] == '\t') return i;
+        }
+        return -1;
+    }
+
+    private static long parseLong(byte[] line, int from, int to) {
+        if (from == to) throw new NumberFormatException("Empty field");
+        boolean negative = line[from] == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Not a number");
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isStorable(String value) {
+        return value != null && value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0;
+    }
+}
@@ -0,0 +1,127 @@
+package scheduledfilecopier;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Pause, resume and cancel for a running copy. Copy threads pass checkpoint() between chunks,
+// which holds them while paused with their files still open and their place in the queue kept.
+// Cancelling wakes every wait that goes through here, interrupts the registered copy threads so
+// a transfer blocked inside a chunk stops too, and kills external processes started for the job
+public class JobControl {
+
+    public enum State { RUNNING, PAUSED, CANCELLED }
+
+    private static final long PROCESS_POLL_MS = 50;
+
+    private volatile State state = State.RUNNING;
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+    private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+
+    public State state() {
+        return state;
+    }
+
+    public boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    public boolean isPaused() {
+        return state == State.PAUSED;
+    }
+
+    public synchronized boolean pause() {
+        if (state != State.RUNNING) return false;
+        state = State.PAUSED;
+        return true;
+    }
+
+    public synchronized boolean resume() {
+        if (state != State.PAUSED) return false;
+        state = State.RUNNING;
+        notifyAll();
+        return true;
+    }
+
+    public void cancel() {
+        synchronized (this) {
+            if (state == State.CANCELLED) return;
+            state = State.CANCELLED;
+            notifyAll();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Process process : processes) {
+            process.destroyForcibly();
+        }
+    }
+
+    // Blocks while paused; false once the job is cancelled
+    public boolean checkpoint() {
+        if (state == State.RUNNING) return true;
+        synchronized (this) {
+            try {
+                while (state == State.PAUSED) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return state != State.CANCELLED;
+        }
+    }
+
+    // Sleeps for up to the given time, ending early on cancel; false if the job was cancelled
+    public boolean sleep(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        synchronized (this) {
+            try {
+                long remaining;
+                while (state != State.CANCELLED && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return state != State.CANCELLED;
+        }
+    }
+
+    // Copy threads are only interrupted while registered, so nothing else sees a stray interrupt
+    public void register(Thread worker) {
+        workers.add(worker);
+        if (isCancelled()) worker.interrupt();
+    }
+
+    public void unregister(Thread worker) {
+        workers.remove(worker);
+    }
+
+    // Processes started for the job are killed on cancel, which also ends reads of their output
+    public Process track(Process process) {
+        processes.add(process);
+        if (isCancelled()) process.destroyForcibly();
+        return process;
+    }
+
+    public int waitFor(Process process) throws IOException {
+        try {
+            while (!process.waitFor(PROCESS_POLL_MS, TimeUnit.MILLISECONDS)) {
+                if (isCancelled()) {
+                    process.destroyForcibly();
+                    throw new InterruptedIOException("Cancelled while waiting for an external process");
+                }
+            }
+            return process.exitValue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new InterruptedIOException("Interrupted while waiting for an external process");
+        } finally {
+            processes.remove(process);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+
+// A stand-in for filesystems without snapshots, and for tests. The tree is cloned next to the
+// source with reflinks where the filesystem has them, which freezes file contents too; otherwise
+// with hard links, which freeze the tree's names, so files replaced or deleted during the run
+// are still copied as they were, but a file rewritten in place still changes
+public class LinkFarmSnapshotProvider implements SnapshotProvider {
+
+    @Override
+    public String name() {
+        return "links";
+    }
+
+    @Override
+    public boolean supports(File source) {
+        return source.getAbsoluteFile().getParentFile() != null;
+    }
+
+    @Override
+    public Snapshot create(File source, JobControl control) throws IOException {
+        Path live = source.toPath().toAbsolutePath();
+        Path farm = live.resolveSibling(SNAPSHOT_FOLDER).resolve(SnapshotProvider.snapshotName());
+        Files.createDirectories(farm);
+        Path root = farm.resolve(live.getFileName().toString());
+
+        try {
+            if (!reflink(live, root, control)) {
+                linkTree(live, root, control);
+            }
+        } catch (IOException e) {
+            delete(farm);
+            throw e;
+        }
+        return new Snapshot() {
+            @Override
+            public File root() {
+                return root.toFile();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delete(farm);
+                try {
+                    Files.deleteIfExists(farm.getParent());
+                } catch (DirectoryNotEmptyException e) {
+                    // Another job's snapshot of a neighbouring folder is still in use
+                }
+            }
+        };
+    }
+
+    private static boolean reflink(Path live, Path root, JobControl control) throws IOException {
+        if (System.getProperty("os.name").toLowerCase().contains("win")) return false;
+        try {
+            SnapshotProvider.run(control, "cp", "-a", "--reflink=always", live.toString(), root.toString());
+            return true;
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // Not a reflink filesystem; clear whatever was cloned before the first failure
+            delete(root);
+            return false;
+        }
+    }
+
+    private static void linkTree(Path live, Path root, JobControl control) throws IOException {
+        Files.walkFileTree(live, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(root.resolve(live.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (control.isCancelled()) {
+                    throw new InterruptedIOException("Snapshot cancelled");
+                }
+                Path target = root.resolve(live.relativize(file).toString());
+                if (attrs.isSymbolicLink()) {
+                    // The link itself, so it resolves in the view as it does in the live tree
+                    Files.copy(file, target, LinkOption.NOFOLLOW_LINKS);
+                    return FileVisitResult.CONTINUE;
+                }
+                if (!attrs.isRegularFile()) {
+                    // Devices, pipes and sockets are not copied from the live tree either
+                    return FileVisitResult.CONTINUE;
+                }
+                try {
+                    Files.createLink(target, file);
+                } catch (IOException | UnsupportedOperationException e) {
+                    // Another filesystem mounted inside the source, or no link permission
+                    Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                // An entry missing from the view would look deleted, so an unreadable folder fails it
+                if (e != null) throw e;
+                // Folders are new, so they take the source's attributes once their entries are in
+                Path target = root.resolve(live.relativize(dir).toString());
+                PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+                if (view != null) {
+                    PosixFileAttributes attrs = Files.readAttributes(dir, PosixFileAttributes.class);
+                    view.setPermissions(attrs.permissions());
+                }
+                Files.setLastModifiedTime(target, Files.getLastModifiedTime(dir));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                // Folders copied read-only would otherwise keep their entries
+                dir.toFile().setWritable(true);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,219 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+// Background mode: watches host load and disk latency and slows, or pauses, the copy
+// so it stays out of the way of interactive users
+public class LoadGovernor {
+
+    public static final double DEFAULT_TARGET_LOAD = 0.75;
+    public static final double DEFAULT_PAUSE_LOAD = 1.5;
+    private static final double TARGET_LATENCY_MS = 25;
+    private static final double PAUSE_LATENCY_MS = 150;
+    private static final long MIN_RATE = 1024L * 1024;
+    private static final long MAX_RATE = 1024L * 1024 * 1024;
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+    // CPU time in use can't go above 1, so from here on it counts as the pause load
+    private static final double BUSY_CPU_LOAD = 0.95;
+    private static final File DISK_STATS = new File("/proc/diskstats");
+
+    private final Set<String> devices;
+    private final ConcurrencyLimit workerLimit;
+    private final int maxWorkers;
+    private final double targetLoad;
+    private final double pauseLoad;
+    private final BooleanSupplier cancelled;
+    private final Consumer<String> log;
+    private final int processors = Runtime.getRuntime().availableProcessors();
+    private ScheduledExecutorService sampler;
+
+    private boolean paused;
+    private boolean loadUnavailableLogged;
+    private long rate = 8 * MIN_RATE;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private Map<String, long[]> lastDiskStats = new HashMap<>();
+
+    public LoadGovernor(List<File> paths, ConcurrencyLimit workerLimit, int maxWorkers,
+                        double targetLoad, double pauseLoad, BooleanSupplier cancelled, Consumer<String> log) {
+        this.devices = new HashSet<>();
+        for (File path : paths) {
+            String device = deviceOf(path);
+            if (device != null) devices.add(device);
+        }
+        this.workerLimit = workerLimit;
+        this.maxWorkers = Math.max(1, maxWorkers);
+        this.targetLoad = targetLoad;
+        this.pauseLoad = Math.max(targetLoad, pauseLoad);
+        this.cancelled = cancelled;
+        this.log = log;
+    }
+
+    public void start() {
+        lastDiskStats = readDiskStats();
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FileCopier-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        log.accept("Background mode: watching host load" + (devices.isEmpty() ? "" : " and disks " + devices));
+    }
+
+    public void stop() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+        synchronized (this) {
+            paused = false;
+            notifyAll();
+        }
+    }
+
+    // Blocks while paused and paces callers to the current byte rate
+    public void acquire(long bytes) {
+        long waitNanos;
+        synchronized (this) {
+            try {
+                while (paused && !cancelled.getAsBoolean()) {
+                    wait(200);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastRefill) * (rate / 1e9));
+            lastRefill = now;
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens / rate * 1e9) : 0;
+        }
+
+        // Sleep in slices so cancellation and rate changes are noticed
+        long deadline = System.nanoTime() + waitNanos;
+        while (!cancelled.getAsBoolean()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(200)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void sample() {
+        double load = hostLoad();
+        double latency = diskLatency();
+
+        synchronized (this) {
+            boolean wasPaused = paused;
+            if (load >= pauseLoad || latency >= PAUSE_LATENCY_MS) {
+                paused = true;
+            } else if (load > targetLoad || latency > TARGET_LATENCY_MS) {
+                // Multiplicative decrease while the host is busy
+                paused = false;
+                rate = Math.max(MIN_RATE, rate / 2);
+                workerLimit.setLimit(workerLimit.getLimit() - 1);
+            } else {
+                // Additive increase while it is quiet
+                paused = false;
+                rate = Math.min(MAX_RATE, rate + rate / 4 + MIN_RATE);
+                workerLimit.setLimit(Math.min(maxWorkers, workerLimit.getLimit() + 1));
+            }
+
+            if (paused != wasPaused) {
+                if (paused) {
+                    rate = MIN_RATE;
+                    workerLimit.setLimit(1);
+                }
+                log.accept(String.format("%s: load %.2f per core, disk latency %.1f ms",
+                    paused ? "Paused, host is busy" : "Resumed", load, latency));
+                notifyAll();
+            }
+        }
+    }
+
+    // Load per core from the load average, or on Windows, which has none, from the CPU time in use
+    @SuppressWarnings("deprecation")
+    private double hostLoad() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double average = os.getSystemLoadAverage();
+        if (average >= 0) return average / processors;
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double cpu = ((com.sun.management.OperatingSystemMXBean) os).getSystemCpuLoad();
+            if (cpu >= 0) return cpu >= BUSY_CPU_LOAD ? Math.max(cpu, pauseLoad) : cpu;
+        }
+        if (!loadUnavailableLogged) {
+            loadUnavailableLogged = true;
+            log.accept("Background mode: host load is not available here, only disk latency is watched");
+        }
+        return 0;
+    }
+
+    // Average milliseconds per completed I/O on the watched devices since the last sample
+    private double diskLatency() {
+        if (devices.isEmpty()) return 0;
+        Map<String, long[]> current = readDiskStats();
+        double worst = 0;
+        for (String device : devices) {
+            long[] now = current.get(device);
+            long[] before = lastDiskStats.get(device);
+            if (now == null || before == null) continue;
+            long ios = now[0] - before[0];
+            long millis = now[1] - before[1];
+            if (ios > 0) {
+                worst = Math.max(worst, (double) millis / ios);
+            }
+        }
+        lastDiskStats = current;
+        return worst;
+    }
+
+    private static Map<String, long[]> readDiskStats() {
+        Map<String, long[]> stats = new HashMap<>();
+        if (!DISK_STATS.isFile()) return stats;
+        try {
+            for (String line : Files.readAllLines(DISK_STATS.toPath())) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 11) continue;
+                // Completed reads and writes, and the milliseconds spent on them
+                long ios = Long.parseLong(fields[3]) + Long.parseLong(fields[7]);
+                long millis = Long.parseLong(fields[6]) + Long.parseLong(fields[10]);
+                stats.put(fields[2], new long[] {ios, millis});
+            }
+        } catch (IOException | NumberFormatException e) {
+            stats.clear();
+        }
+        return stats;
+    }
+
+    private static String deviceOf(File path) {
+        try {
+            Path existing = path.toPath().toAbsolutePath();
+            while (existing != null && !Files.exists(existing)) {
+                existing = existing.getParent();
+            }
+            if (existing == null) return null;
+            String name = Files.getFileStore(existing).name();
+            if (!name.startsWith("/dev/")) return null;
+            // Device mapper and by-id names are links to the kernel's own device name
+            return Paths.get(name).toRealPath().getFileName().toString();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
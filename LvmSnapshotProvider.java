@@ -0,0 +1,77 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// LVM snapshot of the logical volume holding the source, mounted read-only in a temporary folder.
+// Needs root, and free space in the volume group for the blocks that change during the run
+public class LvmSnapshotProvider implements SnapshotProvider {
+
+    public static final String DEFAULT_SNAPSHOT_SIZE = "10%ORIGIN";
+
+    @Override
+    public String name() {
+        return "lvm";
+    }
+
+    @Override
+    public boolean supports(File source) {
+        if (!System.getProperty("os.name").toLowerCase().contains("linux")) return false;
+        try {
+            String[] mount = mountOf(source);
+            return !SnapshotProvider.run("lvs", "--noheadings", "-o", "lv_name", mount[0]).isEmpty();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Snapshot create(File source, JobControl control) throws IOException {
+        Path live = source.toPath().toRealPath();
+        String[] mount = mountOf(live.toFile());
+        String[] volume = SnapshotProvider.run("lvs", "--noheadings", "-o", "vg_name,lv_name", mount[0]).trim().split("\\s+");
+        String name = SnapshotProvider.snapshotName();
+        String snapshotVolume = volume[0] + "/" + name;
+
+        SnapshotProvider.run(control, "lvcreate", "--snapshot", "--name", name, "--extents", DEFAULT_SNAPSHOT_SIZE,
+            volume[0] + "/" + volume[1]);
+        Path mountPoint = Files.createTempDirectory("filecopier-lvm");
+        try {
+            // XFS refuses a second mount of the same filesystem UUID
+            String options = mount[2].equals("xfs") ? "ro,nouuid" : "ro";
+            SnapshotProvider.run(control, "mount", "-o", options, "/dev/" + snapshotVolume, mountPoint.toString());
+        } catch (IOException e) {
+            SnapshotProvider.run("lvremove", "--force", snapshotVolume);
+            Files.deleteIfExists(mountPoint);
+            throw e;
+        }
+
+        File root = mountPoint.resolve(Paths.get(mount[1]).relativize(live)).toFile();
+        return new Snapshot() {
+            @Override
+            public File root() {
+                return root;
+            }
+
+            @Override
+            public void close() throws IOException {
+                SnapshotProvider.run("umount", mountPoint.toString());
+                SnapshotProvider.run("lvremove", "--force", snapshotVolume);
+                Files.deleteIfExists(mountPoint);
+            }
+        };
+    }
+
+    // Device, mount point and filesystem type
+    private static String[] mountOf(File path) throws IOException {
+        String[] fields = SnapshotProvider.run("findmnt", "--noheadings", "--output", "SOURCE,TARGET,FSTYPE",
+            "--target", path.getAbsolutePath()).split("\\s+");
+        if (fields.length < 3) {
+            throw new IOException("Cannot find the mount holding " + path.getAbsolutePath());
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,213 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Copies modification times, permissions and owners from source to destination, so a later run can
+// tell from size and mtime alone that a copy is current. Updates for files whose content is already
+// current are queued and applied in batches; folder attributes wait until the end of the run,
+// because writing files into a folder changes its modification time
+public class MetadataSync {
+
+    // FAT keeps modification times to two seconds
+    public static final long MTIME_TOLERANCE_MS = 2000;
+    private static final int BATCH_SIZE = 256;
+
+    public static class Attributes {
+        final long size;
+        final FileTime lastModified;
+        final Set<PosixFilePermission> permissions;
+        final UserPrincipal owner;
+        final GroupPrincipal group;
+
+        Attributes(long size, FileTime lastModified, Set<PosixFilePermission> permissions,
+                   UserPrincipal owner, GroupPrincipal group) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.permissions = permissions;
+            this.owner = owner;
+            this.group = group;
+        }
+    }
+
+    private final Consumer<String> log;
+    private final List<Object[]> pendingFiles = new ArrayList<>();
+    private final List<File[]> pendingDirectories = new ArrayList<>();
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean copyOwners = true;
+
+    public MetadataSync(Consumer<String> log) {
+        this.log = log;
+    }
+
+    public static Attributes read(File file) throws IOException {
+        Path path = file.toPath();
+        PosixFileAttributeView posix = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+        if (posix != null) {
+            PosixFileAttributes attrs = posix.readAttributes();
+            return new Attributes(attrs.size(), attrs.lastModifiedTime(), attrs.permissions(), attrs.owner(), attrs.group());
+        }
+        // Windows only has the modification time to carry over
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return new Attributes(attrs.size(), attrs.lastModifiedTime(), null, null, null);
+    }
+
+    // Same size and modification time: the content is taken to be unchanged, as rsync's quick check does
+    public static boolean sameContentStamp(Attributes source, Attributes dest) {
+        return source.size == dest.size && sameTime(source.lastModified, dest.lastModified);
+    }
+
+    public boolean needsUpdate(Attributes source, Attributes dest, boolean directory) {
+        if (!sameTime(source.lastModified, dest.lastModified)) return true;
+        if (source.permissions != null && dest.permissions != null
+                && !destinationPermissions(source.permissions, directory).equals(dest.permissions)) {
+            return true;
+        }
+        return copyOwners && source.owner != null && dest.owner != null
+            && (!source.owner.equals(dest.owner) || !source.group.equals(dest.group));
+    }
+
+    public void apply(File dest, Attributes source, boolean directory) throws IOException {
+        Path path = dest.toPath();
+        PosixFileAttributeView view = source.permissions != null
+            ? Files.getFileAttributeView(path, PosixFileAttributeView.class)
+            : null;
+        if (view != null) {
+            view.setPermissions(destinationPermissions(source.permissions, directory));
+            if (copyOwners) {
+                PosixFileAttributes current = view.readAttributes();
+                try {
+                    if (!current.owner().equals(source.owner)) view.setOwner(source.owner);
+                    if (!current.group().equals(source.group)) view.setGroup(source.group);
+                } catch (IOException e) {
+                    // Only an administrator can give files away; keep the rest of the attributes
+                    copyOwners = false;
+                    log.accept("Owners are not copied (" + e.getMessage() + ")");
+                }
+            }
+        }
+        // Last, so nothing above can move it again
+        Files.setLastModifiedTime(path, source.lastModified);
+    }
+
+    // After a copy; a failure here leaves the copy in place, and the next run copies the file again
+    public void copy(File source, List<File> targets) {
+        try {
+            Attributes attrs = read(source);
+            for (File target : targets) {
+                apply(target, attrs, false);
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+        }
+    }
+
+    // A copy whose content turned out to match already
+    public void refresh(File source, File dest) {
+        long failures = failed.sum();
+        copy(source, Collections.singletonList(dest));
+        if (failed.sum() == failures) updated.increment();
+    }
+
+    // A file whose content is already current but whose attributes differ
+    public void queueFile(File dest, Attributes source) {
+        List<Object[]> batch = null;
+        synchronized (pendingFiles) {
+            pendingFiles.add(new Object[] {dest, source});
+            if (pendingFiles.size() >= BATCH_SIZE) {
+                batch = new ArrayList<>(pendingFiles);
+                pendingFiles.clear();
+            }
+        }
+        if (batch != null) {
+            applyFiles(batch);
+        }
+    }
+
+    public void queueDirectory(File source, File dest) {
+        synchronized (pendingDirectories) {
+            pendingDirectories.add(new File[] {source, dest});
+        }
+    }
+
+    // Applies what is still queued; folders only once nothing more will be written into them
+    public void finish(boolean includeDirectories) {
+        List<Object[]> files;
+        synchronized (pendingFiles) {
+            files = new ArrayList<>(pendingFiles);
+            pendingFiles.clear();
+        }
+        applyFiles(files);
+
+        if (includeDirectories) {
+            List<File[]> directories;
+            synchronized (pendingDirectories) {
+                directories = new ArrayList<>(pendingDirectories);
+                pendingDirectories.clear();
+            }
+            for (File[] directory : directories) {
+                try {
+                    Attributes source = read(directory[0]);
+                    if (needsUpdate(source, read(directory[1]), true)) {
+                        apply(directory[1], source, true);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed.increment();
+                }
+            }
+        }
+
+        if (updated.sum() > 0) {
+            log.accept("Updated attributes only for " + updated.sum() + " unchanged file(s)");
+        }
+        if (failed.sum() > 0) {
+            log.accept("Could not copy attributes for " + failed.sum() + " file(s) or folder(s)");
+        }
+    }
+
+    private void applyFiles(List<Object[]> batch) {
+        for (Object[] entry : batch) {
+            File dest = (File) entry[0];
+            try {
+                apply(dest, (Attributes) entry[1], false);
+                updated.increment();
+            } catch (IOException | RuntimeException e) {
+                failed.increment();
+            }
+        }
+    }
+
+    private static boolean sameTime(FileTime a, FileTime b) {
+        return Math.abs(a.toMillis() - b.toMillis()) < MTIME_TOLERANCE_MS;
+    }
+
+    // The owner keeps read and write access, so a later run can still replace the copy or add to the folder
+    private static Set<PosixFilePermission> destinationPermissions(Set<PosixFilePermission> source, boolean directory) {
+        Set<PosixFilePermission> permissions = source.isEmpty()
+            ? EnumSet.noneOf(PosixFilePermission.class)
+            : EnumSet.copyOf(source);
+        permissions.add(PosixFilePermission.OWNER_READ);
+        permissions.add(PosixFilePermission.OWNER_WRITE);
+        if (directory) {
+            permissions.add(PosixFilePermission.OWNER_EXECUTE);
+        }
+        return permissions;
+    }
+}
@@ -0,0 +1,123 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Holds paths as a tree of (parent, name) nodes instead of one File or String per path.
+// Names are stored once as UTF-8 in direct buffers outside the heap, and a node costs an int and
+// a long on the heap, so tens of millions of queued paths fit in a few hundred MB.
+// Directories are interned through a cache, so files in the same folder share their parent
+public class PathStore {
+
+    private static final int SEGMENT_BITS = 16;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int ARENA_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_NAME_BYTES = 0xffff;
+
+    // Node arrays grow a segment at a time, so nothing is copied as the store fills up
+    private final List<int[]> parents = new ArrayList<>();
+    private final List<long[]> names = new ArrayList<>();
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private final Map<String, Integer> directories = new HashMap<>();
+    private int count;
+    private ByteBuffer arena;
+    private long arenaBytes;
+
+    // A path below a directory; the directory is added, with its parents, if it isn't known yet
+    public synchronized int add(File file) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent == null) {
+            return addNode(-1, file.getAbsolutePath());
+        }
+        return addNode(directory(parent), file.getName());
+    }
+
+    public synchronized int add(int parent, String name) {
+        return addNode(parent, name);
+    }
+
+    public synchronized int directory(File directory) {
+        String path = directory.getAbsolutePath();
+        Integer id = directories.get(path);
+        if (id == null) {
+            File parent = directory.getAbsoluteFile().getParentFile();
+            id = parent == null ? addNode(-1, path) : addNode(directory(parent), directory.getName());
+            directories.put(path, id);
+        }
+        return id;
+    }
+
+    public synchronized File toFile(int id) {
+        return new File(path(id));
+    }
+
+    public synchronized String path(int id) {
+        StringBuilder path = new StringBuilder();
+        appendPath(path, id);
+        return path.toString();
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    // Off-heap bytes used for names
+    public synchronized long nameBytes() {
+        return arenaBytes;
+    }
+
+    // The directory cache is only needed while paths are being added
+    public synchronized void forgetDirectories() {
+        directories.clear();
+    }
+
+    private void appendPath(StringBuilder path, int id) {
+        int parent = parents.get(id >>> SEGMENT_BITS)[id & (SEGMENT_SIZE - 1)];
+        if (parent >= 0) {
+            appendPath(path, parent);
+            if (path.length() == 0 || path.charAt(path.length() - 1) != File.separatorChar) {
+                path.append(File.separatorChar);
+            }
+        }
+        path.append(name(id));
+    }
+
+    private String name(int id) {
+        long ref = names.get(id >>> SEGMENT_BITS)[id & (SEGMENT_SIZE - 1)];
+        ByteBuffer source = arenas.get((int) (ref >>> 32)).duplicate();
+        int offset = (int) ref;
+        int length = source.getShort(offset) & 0xffff;
+        byte[] bytes = new byte[length];
+        source.position(offset + 2);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int addNode(int parent, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        if (arena == null || arena.remaining() < bytes.length + 2) {
+            arena = ByteBuffer.allocateDirect(ARENA_SIZE);
+            arenas.add(arena);
+        }
+        long ref = ((long) (arenas.size() - 1) << 32) | arena.position();
+        arena.putShort((short) bytes.length).put(bytes);
+        arenaBytes += bytes.length + 2;
+
+        int id = count++;
+        if ((id & (SEGMENT_SIZE - 1)) == 0) {
+            parents.add(new int[SEGMENT_SIZE]);
+            names.add(new long[SEGMENT_SIZE]);
+        }
+        parents.get(id >>> SEGMENT_BITS)[id & (SEGMENT_SIZE - 1)] = parent;
+        names.get(id >>> SEGMENT_BITS)[id & (SEGMENT_SIZE - 1)] = ref;
+        return id;
+    }
+}
@@ -0,0 +1,105 @@
+package scheduledfilecopier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryQueue {
+
+    public static class Item implements Delayed {
+        final CopyQueue.CopyTask task;
+        final int attempt;
+        final long dueAt;
+
+        Item(CopyQueue.CopyTask task, int attempt, long dueAt) {
+            this.task = task;
+            this.attempt = attempt;
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Item) other).dueAt);
+        }
+    }
+
+    public static class Failure {
+        public final String path;
+        public final int attempts;
+        public final String error;
+
+        Failure(String path, int attempts, String error) {
+            this.path = path;
+            this.attempts = attempts;
+            this.error = error;
+        }
+    }
+
+    private final DelayQueue<Item> pending = new DelayQueue<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final List<Failure> failures = Collections.synchronizedList(new ArrayList<>());
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryQueue(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    // Returns the delay before the next attempt, or -1 if the task has used up its attempts
+    public long defer(CopyQueue.CopyTask task, int failedAttempt, String error) {
+        if (failedAttempt >= maxAttempts) {
+            failures.add(new Failure(task.source.getAbsolutePath(), failedAttempt, error));
+            return -1;
+        }
+
+        // Exponential backoff with +/-25% jitter so files locked by the same
+        // process are not all retried at the same moment
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(failedAttempt - 1, 20));
+        delay = (long) (delay * (0.75 + ThreadLocalRandom.current().nextDouble() * 0.5));
+        pending.add(new Item(task, failedAttempt + 1, System.currentTimeMillis() + delay));
+        return delay;
+    }
+
+    public void fail(CopyQueue.CopyTask task, int attempts, String error) {
+        failures.add(new Failure(task.source.getAbsolutePath(), attempts, error));
+    }
+
+    public Item poll(long timeoutMillis) throws InterruptedException {
+        Item item = pending.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (item != null) {
+            active.incrementAndGet();
+        }
+        return item;
+    }
+
+    public void complete(Item item) {
+        active.decrementAndGet();
+    }
+
+    public boolean isIdle() {
+        return pending.isEmpty() && active.get() == 0;
+    }
+
+    public void clear() {
+        pending.clear();
+    }
+
+    public List<Failure> failures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+}
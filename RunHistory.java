@@ -0,0 +1,163 @@
+package scheduledfilecopier;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class RunHistory {
+
+    public static final String COMPLETED = "completed";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    public static class Run {
+        public final String job;
+        public final long startedAt;
+        public final long durationMillis;
+        public final long scanMillis;
+        public final long bytes;
+        public final long files;
+        public final String outcome;
+
+        public Run(String job, long startedAt, long durationMillis, long scanMillis,
+                   long bytes, long files, String outcome) {
+            this.job = job;
+            this.startedAt = startedAt;
+            this.durationMillis = durationMillis;
+            this.scanMillis = scanMillis;
+            this.bytes = bytes;
+            this.files = files;
+            this.outcome = outcome;
+        }
+
+        public long copyMillis() {
+            return Math.max(0, durationMillis - scanMillis);
+        }
+    }
+
+    private static final String HEADER = "# filecopier history v1";
+    private static final int MAX_RUNS_PER_JOB = 20;
+    private static final int RECENT_RUNS = 5;
+
+    private final File file;
+    private final List<Run> runs;
+
+    private RunHistory(File file, List<Run> runs) {
+        this.file = file;
+        this.runs = runs;
+    }
+
+    public static RunHistory load(File file) {
+        List<Run> runs = new ArrayList<>();
+        if (file.isFile()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                if (HEADER.equals(reader.readLine())) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] fields = line.split("\t");
+                        if (fields.length != 7) continue;
+                        try {
+                            runs.add(new Run(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                                Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]), fields[6]));
+                        } catch (NumberFormatException e) {
+                            // Skip damaged lines
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                runs.clear();
+            }
+        }
+        return new RunHistory(file, runs);
+    }
+
+    public static String jobKey(String sourcePath, String destinationPath) {
+        return (sourcePath + " -> " + destinationPath).replace('\t', ' ');
+    }
+
+    public synchronized void add(Run run) throws IOException {
+        runs.add(run);
+
+        // Keep only the most recent runs of each job
+        List<Run> kept = new ArrayList<>();
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            Run candidate = runs.get(i);
+            if (countJob(kept, candidate.job) < MAX_RUNS_PER_JOB) kept.add(candidate);
+        }
+        Collections.reverse(kept);
+        runs.clear();
+        runs.addAll(kept);
+
+        File parent = file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Run r : runs) {
+                writer.write(r.job + "\t" + r.startedAt + "\t" + r.durationMillis + "\t" + r.scanMillis
+                    + "\t" + r.bytes + "\t" + r.files + "\t" + r.outcome);
+                writer.newLine();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Bytes per second over the recent completed runs of a job, or 0 if there are none
+    public synchronized double copyRate(String job) {
+        long bytes = 0;
+        long millis = 0;
+        for (Run run : recentCompleted(job)) {
+            bytes += run.bytes;
+            millis += run.copyMillis();
+        }
+        return millis > 0 ? bytes * 1000.0 / millis : 0;
+    }
+
+    public synchronized long typicalDurationMillis(String job) {
+        return medianDuration(recentCompleted(job));
+    }
+
+    public static String formatDuration(long millis) {
+        long seconds = Math.max(0, millis / 1000);
+        if (seconds < 60) return seconds + "s";
+        long minutes = seconds / 60;
+        if (minutes < 60) return minutes + "m " + (seconds % 60) + "s";
+        return (minutes / 60) + "h " + (minutes % 60) + "m";
+    }
+
+    private List<Run> recentCompleted(String job) {
+        List<Run> recent = new ArrayList<>();
+        for (int i = runs.size() - 1; i >= 0 && recent.size() < RECENT_RUNS; i--) {
+            Run run = runs.get(i);
+            if (run.job.equals(job) && COMPLETED.equals(run.outcome)) recent.add(run);
+        }
+        return recent;
+    }
+
+    private static long medianDuration(List<Run> runs) {
+        if (runs.isEmpty()) return -1;
+        List<Long> values = new ArrayList<>();
+        for (Run run : runs) {
+            values.add(run.durationMillis);
+        }
+        Collections.sort(values);
+        return values.get(values.size() / 2);
+    }
+
+    private static int countJob(List<Run> runs, String job) {
+        int count = 0;
+        for (Run run : runs) {
+            if (run.job.equals(job)) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,135 @@
+package scheduledfilecopier;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// AWS Signature Version 4 for S3 requests
+public class S3Signer {
+
+    public static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final DateTimeFormatter AMZ_DATE =
+        DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final String accessKey;
+    private final String secretKey;
+    private final String sessionToken;
+    private final String region;
+
+    public S3Signer(String accessKey, String secretKey, String sessionToken, String region) {
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.sessionToken = sessionToken;
+        this.region = region;
+    }
+
+    // Headers to add to a request for uri; the URI path and query must already be encoded.
+    // Extra headers, e.g. x-amz-meta-*, are signed and returned with the rest
+    public Map<String, String> sign(String method, URI uri, Map<String, String> extraHeaders,
+                                    String payloadHash, Instant now) {
+        String amzDate = AMZ_DATE.format(now);
+        SortedMap<String, String> headers = new TreeMap<>();
+        for (Map.Entry<String, String> header : extraHeaders.entrySet()) {
+            headers.put(header.getKey().toLowerCase(), header.getValue());
+        }
+        headers.put("host", uri.getPort() != -1 ? uri.getHost() + ":" + uri.getPort() : uri.getHost());
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("x-amz-date", amzDate);
+        if (sessionToken != null && !sessionToken.isEmpty()) {
+            headers.put("x-amz-security-token", sessionToken);
+        }
+
+        String query = uri.getRawQuery();
+        String authorization = authorization(method, uri.getRawPath(), canonicalQuery(query), headers, payloadHash, amzDate);
+        // The client sets Host itself
+        headers.remove("host");
+        headers.put("Authorization", authorization);
+        return headers;
+    }
+
+    public String authorization(String method, String canonicalUri, String canonicalQuery,
+                                SortedMap<String, String> headers, String payloadHash, String amzDate) {
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringBuilder signedHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+            signedHeaders.append(signedHeaders.length() > 0 ? ";" : "").append(header.getKey());
+        }
+
+        String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\n"
+            + canonicalHeaders + "\n" + signedHeaders + "\n" + payloadHash;
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + hex(sha256(canonicalRequest));
+
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        String signature = hex(hmac(key, stringToSign));
+
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope
+            + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature;
+    }
+
+    // RFC 3986 encoding as S3 expects it; slashes are kept when encoding object keys
+    public static String encode(String value, boolean keepSlashes) {
+        String encoded = URLEncoder.encode(value, StandardCharsets.UTF_8)
+            .replace("+", "%20")
+            .replace("*", "%2A")
+            .replace("%7E", "~");
+        return keepSlashes ? encoded.replace("%2F", "/") : encoded;
+    }
+
+    private static String canonicalQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) return "";
+        SortedMap<String, String> parameters = new TreeMap<>();
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            parameters.put(equals < 0 ? parameter : parameter.substring(0, equals),
+                equals < 0 ? "" : parameter.substring(equals + 1));
+        }
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            query.append(query.length() > 0 ? "&" : "").append(parameter.getKey()).append('=').append(parameter.getValue());
+        }
+        return query.toString();
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,335 @@
+package scheduledfilecopier;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Uploads files to an S3-compatible bucket. Small files are sent as single PUTs from the worker
+// that adds them, so a failed upload fails that file and goes through the usual retries; large
+// files are split into parts uploaded in parallel. All requests share one HTTP client, so
+// connections are kept open and reused
+public class S3Sink implements DestinationSink {
+
+    public static final String SCHEME = "s3://";
+    public static final String DEFAULT_REGION = "us-east-1";
+    public static final long MULTIPART_THRESHOLD = 64L * 1024 * 1024;
+    private static final long MIN_PART_SIZE = 8L * 1024 * 1024;
+    private static final int MAX_PARTS = 10000;
+    // Part buffers held in memory across all multipart uploads
+    private static final int MAX_PART_BUFFERS = 8;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_BASE_DELAY_MS = 500;
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>(.*?)</UploadId>");
+
+    private final String bucket;
+    private final String prefix;
+    private final URI endpoint;
+    private final S3Signer signer;
+    private final HttpClient client;
+    private final ExecutorService uploads;
+    private final Semaphore partBuffers = new Semaphore(MAX_PART_BUFFERS);
+    private final AtomicLong objects = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    // Cleanup that failed after its file was already reported; uploads themselves fail their file
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    public S3Sink(String destination, String endpoint, String region,
+                  String accessKey, String secretKey, String sessionToken) throws IOException {
+        if (!isS3Path(destination)) {
+            throw new IOException("Not an S3 destination: " + destination);
+        }
+        String location = destination.substring(SCHEME.length());
+        int slash = location.indexOf('/');
+        this.bucket = slash < 0 ? location : location.substring(0, slash);
+        this.prefix = slash < 0 ? "" : trimSlashes(location.substring(slash + 1));
+        if (bucket.isEmpty()) {
+            throw new IOException("No bucket in S3 destination: " + destination);
+        }
+        if (accessKey == null || accessKey.isEmpty() || secretKey == null || secretKey.isEmpty()) {
+            throw new IOException("S3 credentials not found; set AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY");
+        }
+
+        String regionName = region == null || region.trim().isEmpty() ? DEFAULT_REGION : region.trim();
+        String endpointUrl = endpoint == null || endpoint.trim().isEmpty()
+            ? "https://s3." + regionName + ".amazonaws.com"
+            : endpoint.trim();
+        try {
+            this.endpoint = new URI(endpointUrl.endsWith("/") ? endpointUrl.substring(0, endpointUrl.length() - 1) : endpointUrl);
+        } catch (java.net.URISyntaxException e) {
+            throw new IOException("Invalid S3 endpoint: " + endpointUrl, e);
+        }
+        this.signer = new S3Signer(accessKey, secretKey, sessionToken, regionName);
+        this.uploads = Executors.newFixedThreadPool(MAX_PART_BUFFERS, r -> {
+            Thread thread = new Thread(r, "FileCopier-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // S3 speaks HTTP/1.1; the client keeps a pool of connections per host
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+    }
+
+    public static boolean isS3Path(String path) {
+        return path != null && path.regionMatches(true, 0, SCHEME, 0, SCHEME.length());
+    }
+
+    @Override
+    public void add(String path, File source, LongConsumer progress, BooleanSupplier cancelled) throws IOException {
+        String key = prefix.isEmpty() ? path : prefix + "/" + path;
+        long size = source.length();
+        Map<String, String> metadata = Collections.singletonMap("x-amz-meta-mtime",
+            Long.toString(source.lastModified() / 1000));
+
+        // Open the source first, so a locked file fails here and goes through the usual retries
+        new FileInputStream(source).close();
+
+        if (size >= MULTIPART_THRESHOLD) {
+            uploadMultipart(key, source, size, metadata, progress, cancelled);
+            return;
+        }
+
+        if (cancelled.getAsBoolean()) throw new InterruptedIOException("Copy cancelled");
+        send("PUT", objectUri(key, null), metadata, () -> HttpRequest.BodyPublishers.fromPublisher(
+            HttpRequest.BodyPublishers.ofInputStream(() -> {
+                try {
+                    return new FileInputStream(source);
+                } catch (FileNotFoundException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }), size));
+        objects.incrementAndGet();
+        bytes.addAndGet(size);
+        progress.accept(size);
+    }
+
+    @Override
+    public String summary() {
+        return "Uploaded " + objects.get() + " object(s), " + bytes.get() + " bytes to "
+            + SCHEME + bucket + (prefix.isEmpty() ? "" : "/" + prefix);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Part uploads of a file end before its add() returns, so this only waits for stragglers
+        uploads.shutdown();
+        try {
+            uploads.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            uploads.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for uploads");
+        }
+        synchronized (failures) {
+            if (!failures.isEmpty()) {
+                throw new IOException(failures.size() + " upload cleanup(s) failed, first: " + failures.get(0));
+            }
+        }
+    }
+
+    private void uploadMultipart(String key, File source, long size, Map<String, String> metadata,
+                                 LongConsumer progress, BooleanSupplier cancelled) throws IOException {
+        long partSize = Math.max(MIN_PART_SIZE, (size + MAX_PARTS - 1) / MAX_PARTS);
+        String response = send("POST", objectUri(key, "uploads"), metadata, HttpRequest.BodyPublishers::noBody);
+        Matcher matcher = UPLOAD_ID.matcher(response);
+        if (!matcher.find()) {
+            throw new IOException("No upload id returned for " + key);
+        }
+        String uploadId = unescapeXml(matcher.group(1));
+        String uploadQuery = "uploadId=" + S3Signer.encode(uploadId, false);
+
+        int partCount = (int) ((size + partSize - 1) / partSize);
+        String[] etags = new String[partCount];
+        List<Future<?>> parts = new ArrayList<>();
+        // A part's buffer permit is released by whichever claims the part first: the upload when it
+        // starts, or the cleanup when the part is cancelled before it ever ran
+        List<AtomicBoolean> claims = new ArrayList<>();
+        boolean completed = false;
+        try (InputStream input = new FileInputStream(source)) {
+            for (int part = 0; part < partCount; part++) {
+                if (cancelled.getAsBoolean()) throw new IOException("Copy cancelled");
+                byte[] buffer = input.readNBytes((int) Math.min(partSize, size - part * partSize));
+                if (buffer.length == 0) {
+                    throw new IOException("File shrank during upload: " + source.getAbsolutePath());
+                }
+
+                // Reading stays sequential; the part uploads overlap each other
+                acquire(partBuffers);
+                int partNumber = part + 1;
+                AtomicBoolean claim = new AtomicBoolean();
+                claims.add(claim);
+                try {
+                    parts.add(uploads.submit(() -> {
+                        if (!claim.compareAndSet(false, true)) return null;
+                        try {
+                            URI uri = objectUri(key, "partNumber=" + partNumber + "&" + uploadQuery);
+                            etags[partNumber - 1] = send("PUT", uri, Collections.emptyMap(),
+                                () -> HttpRequest.BodyPublishers.ofByteArray(buffer), "ETag");
+                            progress.accept(buffer.length);
+                            return null;
+                        } finally {
+                            partBuffers.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    claim.set(true);
+                    partBuffers.release();
+                    throw new IOException("Upload queue is closed", e);
+                }
+            }
+            for (Future<?> part : parts) {
+                await(part);
+            }
+
+            StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+            for (int i = 0; i < partCount; i++) {
+                body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                    .append(escapeXml(etags[i])).append("</ETag></Part>");
+            }
+            body.append("</CompleteMultipartUpload>");
+            byte[] completion = body.toString().getBytes(StandardCharsets.UTF_8);
+            String result = send("POST", objectUri(key, uploadQuery), Collections.emptyMap(),
+                () -> HttpRequest.BodyPublishers.ofByteArray(completion));
+            // S3 can report a failed completion inside a 200 response
+            if (result.contains("<Error>")) {
+                throw new IOException("Multipart upload failed for " + key + ": " + result);
+            }
+            completed = true;
+            objects.incrementAndGet();
+            bytes.addAndGet(size);
+        } finally {
+            if (!completed) {
+                for (int i = 0; i < parts.size(); i++) {
+                    parts.get(i).cancel(true);
+                    if (claims.get(i).compareAndSet(false, true)) {
+                        partBuffers.release();
+                    }
+                }
+                abort(key, uploadQuery);
+            }
+        }
+    }
+
+    private void abort(String key, String uploadQuery) {
+        // Otherwise the uploaded parts are kept, and billed, until a lifecycle rule removes them
+        try {
+            send("DELETE", objectUri(key, uploadQuery), Collections.emptyMap(), HttpRequest.BodyPublishers::noBody);
+        } catch (IOException e) {
+            failures.add(key + ": could not abort multipart upload: " + e.getMessage());
+        }
+    }
+
+    private String send(String method, URI uri, Map<String, String> headers,
+                        Callable<HttpRequest.BodyPublisher> body) throws IOException {
+        return send(method, uri, headers, body, null);
+    }
+
+    // Returns the named response header, or the response body when header is null
+    private String send(String method, URI uri, Map<String, String> headers,
+                        Callable<HttpRequest.BodyPublisher> body, String header) throws IOException {
+        IOException lastFailure = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                try {
+                    Thread.sleep(RETRY_BASE_DELAY_MS << (attempt - 2));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while retrying " + method + " " + uri.getRawPath());
+                }
+            }
+
+            HttpResponse<String> response;
+            try {
+                // Signed per attempt, as the signature carries the request time
+                HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofMinutes(5))
+                    .method(method, body.call());
+                for (Map.Entry<String, String> signed : signer.sign(method, uri, headers,
+                        S3Signer.UNSIGNED_PAYLOAD, Instant.now()).entrySet()) {
+                    request.header(signed.getKey(), signed.getValue());
+                }
+                response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during " + method + " " + uri.getRawPath());
+            } catch (IOException | UncheckedIOException e) {
+                lastFailure = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+                continue;
+            } catch (Exception e) {
+                throw new IOException(method + " " + uri.getRawPath() + " failed: " + e.getMessage(), e);
+            }
+
+            int status = response.statusCode();
+            if (status >= 200 && status < 300) {
+                return header == null ? response.body() : response.headers().firstValue(header).orElse("");
+            }
+            lastFailure = new IOException(method + " " + uri.getRawPath() + " returned " + status + ": " + response.body());
+            // Throttling and server errors are worth another try; anything else will not change
+            if (status != 429 && status < 500) {
+                throw lastFailure;
+            }
+        }
+        throw lastFailure;
+    }
+
+    private URI objectUri(String key, String query) throws IOException {
+        String uri = endpoint + "/" + S3Signer.encode(bucket, false) + "/" + S3Signer.encode(key, true)
+            + (query != null ? "?" + query : "");
+        try {
+            return new URI(uri);
+        } catch (java.net.URISyntaxException e) {
+            throw new IOException("Invalid object URI: " + uri, e);
+        }
+    }
+
+    private static void acquire(Semaphore semaphore) throws IOException {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an upload slot");
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a part upload");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static String trimSlashes(String value) {
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) == '/') start++;
+        while (end > start && value.charAt(end - 1) == '/') end--;
+        return value.substring(start, end);
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescapeXml(String value) {
+        return value.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+}
@@ -0,0 +1,68 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// What the scan found, gathered while the copy queue is built so the tree is only walked once
+public class ScanSummary {
+
+    private static final int MAX_PST_FILES = 20;
+    private static final long REPORT_INTERVAL_NANOS = 250_000_000L;
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final Map<String, LongAdder> filesByType = new ConcurrentHashMap<>();
+    private final List<File> pstFiles = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong nextReport = new AtomicLong(System.nanoTime());
+
+    // Returns true when it is time to show the running totals again
+    public boolean record(File file, long size) {
+        files.increment();
+        bytes.add(size);
+        String type = typeOf(file.getName());
+        filesByType.computeIfAbsent(type, k -> new LongAdder()).increment();
+        if (type.equals(".pst") && pstFiles.size() < MAX_PST_FILES) {
+            pstFiles.add(file);
+        }
+
+        long now = System.nanoTime();
+        long due = nextReport.get();
+        return now >= due && nextReport.compareAndSet(due, now + REPORT_INTERVAL_NANOS);
+    }
+
+    public long files() {
+        return files.sum();
+    }
+
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public boolean hasPstFiles() {
+        return !pstFiles.isEmpty();
+    }
+
+    public List<File> pstFiles() {
+        synchronized (pstFiles) {
+            return new ArrayList<>(pstFiles);
+        }
+    }
+
+    // The most common file types, largest count first
+    public List<Map.Entry<String, Long>> topTypes(int limit) {
+        List<Map.Entry<String, Long>> types = new ArrayList<>();
+        for (Map.Entry<String, LongAdder> entry : filesByType.entrySet()) {
+            types.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue().sum()));
+        }
+        types.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return types.subList(0, Math.min(limit, types.size()));
+    }
+
+    private static String typeOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && dot < name.length() - 1 ? name.substring(dot).toLowerCase() : "(none)";
+    }
+}
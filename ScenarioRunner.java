@@ -0,0 +1,524 @@
+package scheduledfilecopier;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Scripted end-to-end runs of FileCopier over generated trees, through SimulatedStorage where a
+// scenario needs slow or failing storage. Each scenario checks the destination against the source,
+// a minimum rate for its timed run and a heap ceiling; any miss makes the runner exit with 1, so a
+// build step running it fails on copy or scan path regressions
+public class ScenarioRunner {
+
+    public static final int DEFAULT_SCALE = 1;
+    private static final long MB = 1024 * 1024;
+    private static final long HEAP_SAMPLE_MS = 10;
+
+    private interface Script {
+        Measurement run(File source, File dest) throws Exception;
+    }
+
+    // Limits are per second for the timed run; a rate of files suits trees of tiny files
+    private static class Scenario {
+        final String name;
+        final long minBytesPerSecond;
+        final long minFilesPerSecond;
+        final long maxHeapBytes;
+        final Script script;
+
+        Scenario(String name, long minBytesPerSecond, long minFilesPerSecond, long maxHeapBytes, Script script) {
+            this.name = name;
+            this.minBytesPerSecond = minBytesPerSecond;
+            this.minFilesPerSecond = minFilesPerSecond;
+            this.maxHeapBytes = maxHeapBytes;
+            this.script = script;
+        }
+    }
+
+    private static class Measurement {
+        long files;
+        long bytes;
+        long nanos;
+        long peakHeap;
+    }
+
+    private final File work;
+    private final int scale;
+    private final Map<String, Scenario> scenarios = new LinkedHashMap<>();
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+    public ScenarioRunner(File work, int scale) {
+        this.work = work;
+        this.scale = scale;
+
+        scenarios.put("large-files", new Scenario("large-files", 30 * MB, 0, 256 * MB, (source, dest) -> {
+            generate(source, 4, 64 * MB, 1);
+            return timed(copier(source, dest), source, dest);
+        }));
+        scenarios.put("tiny-files", new Scenario("tiny-files", 0, 300, 256 * MB, (source, dest) -> {
+            generate(source, 20_000 * scale, 1024, 200);
+            return timed(copier(source, dest), source, dest);
+        }));
+        scenarios.put("slow-smb", new Scenario("slow-smb", 20 * MB, 0, 256 * MB, (source, dest) -> {
+            generate(source, 200, 512 * 1024, 10);
+            SimulatedStorage storage = new SimulatedStorage();
+            storage.setLatency(20);
+            storage.setBandwidth(40 * MB);
+            // Workers sized for the link's latency rather than tuned to the local disk
+            FileCopier copier = copier(source, dest, storage);
+            copier.setAdaptiveTuning(false);
+            copier.setThreadCount(8);
+            return timed(copier, source, dest);
+        }));
+        scenarios.put("locked-files", new Scenario("locked-files", 0, 5, 256 * MB, (source, dest) -> {
+            generate(source, 50, 64 * 1024, 1);
+            SimulatedStorage storage = new SimulatedStorage();
+            for (int i = 0; i < 5; i++) {
+                storage.lockFile(fileName(i * 10), 1);
+            }
+            return timed(copier(source, dest, storage), source, dest);
+        }));
+        scenarios.put("flaky-io", new Scenario("flaky-io", 0, 5, 256 * MB, (source, dest) -> {
+            generate(source, 200, 64 * 1024, 4);
+            SimulatedStorage storage = new SimulatedStorage();
+            storage.setErrorRate(0.05, 42);
+            return timed(copier(source, dest, storage), source, dest);
+        }));
+        scenarios.put("disk-full", new Scenario("disk-full", 0, 10, 256 * MB, (source, dest) -> {
+            generate(source, 40, 256 * 1024, 1);
+            SimulatedStorage storage = new SimulatedStorage();
+            storage.setCapacity(6 * MB);
+            FileCopier full = copier(source, dest, storage);
+            full.setMaxAttempts(2);
+            try {
+                full.startCopy();
+                throw new IOException("Copy to a full destination reported success");
+            } catch (IOException e) {
+                if (!e.getMessage().contains("could not be copied")) throw e;
+            }
+            // Space freed: the next run finishes what the first could not
+            storage.setCapacity(Long.MAX_VALUE);
+            return timed(copier(source, dest, storage), source, dest);
+        }));
+        scenarios.put("s3-upload", new Scenario("s3-upload", 5 * MB, 0, 256 * MB, (source, dest) -> {
+            generate(source, 100, 64 * 1024, 4);
+            generate(new File(source, "large"), 1, 80 * MB, 1);
+            try (FakeS3 s3 = new FakeS3(dest)) {
+                // Throttling every tenth request is retried inside the upload; a file failing more
+                // often than that has to come back through the copier's retry queue
+                s3.setErrorEvery(10);
+                s3.failRequests(fileName(3), 5);
+                System.setProperty("aws.accessKeyId", "scenario");
+                System.setProperty("aws.secretAccessKey", "scenario");
+                FileCopier copier = copier(source, S3Sink.SCHEME + "scenario/backup");
+                copier.setS3Endpoint(s3.endpoint());
+                return timed(copier, source, new File(dest, "scenario/backup"));
+            }
+        }));
+        scenarios.put("changing-files", new Scenario("changing-files", 10 * MB, 0, 256 * MB, (source, dest) -> {
+            generate(source, 40, 2 * MB, 1);
+            SimulatedStorage storage = new SimulatedStorage();
+            for (int i = 0; i < 10; i++) {
+                storage.changeDuringCopy(fileName(i * 4));
+            }
+            Measurement first = timed(copier(source, dest, storage), null, dest);
+            // The files that changed are out of date, and the next run brings them over; the rate
+            // is the whole tree over the time both runs took to get it current
+            Measurement second = timed(copier(source, dest, storage), source, dest);
+            second.nanos += first.nanos;
+            second.peakHeap = Math.max(first.peakHeap, second.peakHeap);
+            return second;
+        }));
+    }
+
+    public boolean run(List<String> names) throws IOException {
+        boolean passed = true;
+        for (String name : names.isEmpty() ? new ArrayList<>(scenarios.keySet()) : names) {
+            Scenario scenario = scenarios.get(name);
+            if (scenario == null) {
+                throw new IOException("Unknown scenario: " + name + " (known: " + scenarios.keySet() + ")");
+            }
+            passed &= run(scenario);
+        }
+        return passed;
+    }
+
+    private boolean run(Scenario scenario) throws IOException {
+        File folder = new File(work, scenario.name);
+        delete(folder);
+        messages.clear();
+        List<String> problems = new ArrayList<>();
+        Measurement result = null;
+        try {
+            result = scenario.script.run(new File(folder, "source"), new File(folder, "dest"));
+        } catch (Exception e) {
+            problems.add(e.toString());
+        }
+
+        if (result != null) {
+            double seconds = Math.max(result.nanos, 1) / 1e9;
+            long bytesPerSecond = (long) (result.bytes / seconds);
+            long filesPerSecond = (long) (result.files / seconds);
+            if (bytesPerSecond < scenario.minBytesPerSecond) {
+                problems.add("copied " + FileCopier.formatSize(bytesPerSecond) + "/s, below "
+                    + FileCopier.formatSize(scenario.minBytesPerSecond) + "/s");
+            }
+            if (filesPerSecond < scenario.minFilesPerSecond) {
+                problems.add("copied " + filesPerSecond + " files/s, below " + scenario.minFilesPerSecond);
+            }
+            if (result.peakHeap > scenario.maxHeapBytes) {
+                problems.add("heap reached " + FileCopier.formatSize(result.peakHeap) + ", above "
+                    + FileCopier.formatSize(scenario.maxHeapBytes));
+            }
+            System.out.println(String.format("%-15s %s %d file(s), %s in %.2fs: %s/s, %d files/s, heap %s",
+                scenario.name, problems.isEmpty() ? "PASS" : "FAIL", result.files, FileCopier.formatSize(result.bytes),
+                seconds, FileCopier.formatSize(bytesPerSecond), filesPerSecond, FileCopier.formatSize(result.peakHeap)));
+        } else {
+            System.out.println(String.format("%-15s FAIL", scenario.name));
+        }
+
+        for (String problem : problems) {
+            System.out.println("    " + problem);
+        }
+        if (!problems.isEmpty()) {
+            // The end of the copier's log usually says why
+            List<String> tail;
+            synchronized (messages) {
+                tail = new ArrayList<>(messages.subList(Math.max(0, messages.size() - 20), messages.size()));
+            }
+            for (String message : tail) {
+                System.out.println("    | " + message);
+            }
+        }
+        delete(folder);
+        return problems.isEmpty();
+    }
+
+    private FileCopier copier(File source, File dest) {
+        return copier(source, dest.getAbsolutePath());
+    }
+
+    private FileCopier copier(File source, String destination) {
+        return new FileCopier(source.getAbsolutePath(), destination, false, false, false,
+            new ArrayList<>(), new ArrayList<>(), new FileCopier.ProgressUpdater() {
+                @Override
+                public void updateProgress(String currentFile, int progress, long bytesCopied, long totalBytes) {
+                }
+
+                @Override
+                public void logMessage(String message) {
+                    messages.add(message);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return false;
+                }
+            });
+    }
+
+    private FileCopier copier(File source, File dest, SimulatedStorage storage) {
+        FileCopier copier = copier(source, dest);
+        copier.registerCopyStrategy(storage);
+        copier.setCopyRules(Collections.singletonList("-> " + SimulatedStorage.NAME));
+        return copier;
+    }
+
+    // Runs the copy while sampling the heap, then checks dest against source if given
+    private Measurement timed(FileCopier copier, File source, File dest) throws IOException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        AtomicLong peak = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        AtomicBoolean running = new AtomicBoolean(true);
+        // Used heap includes garbage not yet collected, so ceilings are loose upper bounds
+        Thread sampler = new Thread(() -> {
+            while (running.get()) {
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(HEAP_SAMPLE_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "FileCopier-heap");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        Measurement measurement = new Measurement();
+        long start = System.nanoTime();
+        try {
+            copier.startCopy();
+        } finally {
+            measurement.nanos = System.nanoTime() - start;
+            running.set(false);
+            sampler.interrupt();
+        }
+        measurement.peakHeap = peak.get();
+        if (source != null) {
+            verify(source, dest, measurement);
+        }
+        return measurement;
+    }
+
+    private static void verify(File source, File dest, Measurement measurement) throws IOException {
+        File[] children = source.listFiles();
+        if (children == null) return;
+        for (File child : children) {
+            File copy = new File(dest, child.getName());
+            if (child.isDirectory()) {
+                verify(child, copy, measurement);
+                continue;
+            }
+            if (!copy.isFile() || copy.length() != child.length() || !sameContent(child, copy)) {
+                throw new IOException("Destination does not match source: " + copy.getAbsolutePath());
+            }
+            measurement.files++;
+            measurement.bytes += child.length();
+        }
+    }
+
+    private static boolean sameContent(File a, File b) throws IOException {
+        byte[] bufferA = new byte[256 * 1024];
+        byte[] bufferB = new byte[256 * 1024];
+        try (FileInputStream inA = new FileInputStream(a); FileInputStream inB = new FileInputStream(b)) {
+            while (true) {
+                int readA = inA.readNBytes(bufferA, 0, bufferA.length);
+                int readB = inB.readNBytes(bufferB, 0, bufferB.length);
+                if (readA != readB || Arrays.mismatch(bufferA, 0, readA, bufferB, 0, readB) >= 0) return false;
+                if (readA < bufferA.length) return true;
+            }
+        }
+    }
+
+    // Files named by index, spread evenly over the given number of folders
+    private static void generate(File root, int files, long size, int folders) throws IOException {
+        Random random = new Random(files * 31L + size);
+        byte[] block = new byte[(int) Math.min(size, MB)];
+        for (int i = 0; i < files; i++) {
+            File folder = folders > 1 ? new File(root, "dir" + (i % folders)) : root;
+            if (!folder.mkdirs() && !folder.isDirectory()) {
+                throw new IOException("Failed to create directory: " + folder.getAbsolutePath());
+            }
+            try (FileOutputStream out = new FileOutputStream(new File(folder, fileName(i)))) {
+                for (long written = 0; written < size; written += block.length) {
+                    random.nextBytes(block);
+                    out.write(block, 0, (int) Math.min(block.length, size - written));
+                }
+            }
+        }
+    }
+
+    // Just enough of S3 for S3Sink: single PUTs and multipart uploads, stored as files under root.
+    // Bodies stream to disk, so the fake adds little to the heap the scenario measures
+    private static class FakeS3 implements Closeable {
+        private final File root;
+        private final HttpServer server;
+        private final ExecutorService handlers = Executors.newFixedThreadPool(16, r -> {
+            Thread thread = new Thread(r, "FileCopier-fake-s3");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final Map<String, Map<Integer, File>> uploads = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> failing = new ConcurrentHashMap<>();
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile int errorEvery;
+
+        FakeS3(File root) throws IOException {
+            this.root = root;
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.setExecutor(handlers);
+            server.createContext("/", exchange -> {
+                try {
+                    handle(exchange);
+                } catch (IOException | RuntimeException e) {
+                    respond(exchange, 500, "<Error>" + e + "</Error>");
+                }
+            });
+            server.start();
+        }
+
+        String endpoint() {
+            return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+        }
+
+        // Every n-th request is refused with 503 SlowDown
+        void setErrorEvery(int errorEvery) {
+            this.errorEvery = errorEvery;
+        }
+
+        // Requests for keys ending in the given name fail with 500 the given number of times
+        void failRequests(String name, int times) {
+            failing.put(name, new AtomicInteger(times));
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String path = URLDecoder.decode(exchange.getRequestURI().getRawPath().replace("+", "%2B"), "UTF-8");
+            Map<String, String> query = new HashMap<>();
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            if (rawQuery != null) {
+                for (String pair : rawQuery.split("&")) {
+                    int equals = pair.indexOf('=');
+                    query.put(equals < 0 ? pair : pair.substring(0, equals),
+                        equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+                }
+            }
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("AWS4-HMAC-SHA256 ")) {
+                respond(exchange, 403, "<Error>AccessDenied</Error>");
+                return;
+            }
+            int errors = errorEvery;
+            if (errors > 0 && requests.incrementAndGet() % errors == 0) {
+                exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                respond(exchange, 503, "<Error>SlowDown</Error>");
+                return;
+            }
+            for (Map.Entry<String, AtomicInteger> failure : failing.entrySet()) {
+                if (path.endsWith("/" + failure.getKey()) && failure.getValue().getAndDecrement() > 0) {
+                    exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                    respond(exchange, 500, "<Error>InternalError</Error>");
+                    return;
+                }
+            }
+
+            File object = new File(root, path.substring(1));
+            if (method.equals("POST") && query.containsKey("uploads")) {
+                String uploadId = UUID.randomUUID().toString();
+                uploads.put(uploadId, new ConcurrentSkipListMap<>());
+                respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>" + uploadId
+                    + "</UploadId></InitiateMultipartUploadResult>");
+            } else if (method.equals("PUT") && query.containsKey("partNumber")) {
+                Map<Integer, File> parts = uploads.get(query.get("uploadId"));
+                if (parts == null) {
+                    respond(exchange, 404, "<Error>NoSuchUpload</Error>");
+                    return;
+                }
+                File part = new File(root, ".uploads/" + query.get("uploadId") + "." + query.get("partNumber"));
+                receive(exchange, part);
+                parts.put(Integer.parseInt(query.get("partNumber")), part);
+                exchange.getResponseHeaders().add("ETag", "\"part" + query.get("partNumber") + "\"");
+                respond(exchange, 200, "");
+            } else if (method.equals("POST") && query.containsKey("uploadId")) {
+                Map<Integer, File> parts = uploads.remove(query.get("uploadId"));
+                if (parts == null) {
+                    respond(exchange, 404, "<Error>NoSuchUpload</Error>");
+                    return;
+                }
+                exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                assemble(object, parts.values());
+                respond(exchange, 200, "<CompleteMultipartUploadResult/>");
+            } else if (method.equals("DELETE") && query.containsKey("uploadId")) {
+                Map<Integer, File> parts = uploads.remove(query.get("uploadId"));
+                if (parts != null) {
+                    parts.values().forEach(File::delete);
+                }
+                respond(exchange, 204, null);
+            } else if (method.equals("PUT")) {
+                receive(exchange, object);
+                respond(exchange, 200, "");
+            } else {
+                respond(exchange, 400, "<Error>NotImplemented</Error>");
+            }
+        }
+
+        private static void receive(HttpExchange exchange, File file) throws IOException {
+            createParent(file);
+            try (InputStream in = exchange.getRequestBody(); FileOutputStream out = new FileOutputStream(file)) {
+                in.transferTo(out);
+            }
+        }
+
+        private static void assemble(File object, Collection<File> parts) throws IOException {
+            createParent(object);
+            try (FileOutputStream out = new FileOutputStream(object)) {
+                for (File part : parts) {
+                    try (FileInputStream in = new FileInputStream(part)) {
+                        in.transferTo(out);
+                    }
+                    part.delete();
+                }
+            }
+        }
+
+        private static void createParent(File file) throws IOException {
+            File parent = file.getParentFile();
+            if (!parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+            }
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] data = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            exchange.sendResponseHeaders(status, body != null ? data.length : -1);
+            if (body != null) {
+                exchange.getResponseBody().write(data);
+            }
+            exchange.close();
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            handlers.shutdownNow();
+        }
+    }
+
+    private static String fileName(int index) {
+        return "file" + index + ".dat";
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // ScenarioRunner [work-folder] [scale] [scenario...]; scale multiplies the number of tiny files
+    public static void main(String[] args) throws Exception {
+        File work = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "filecopier-scenarios");
+        int scale = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SCALE;
+        List<String> names = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : new ArrayList<>();
+        if (!work.mkdirs() && !work.isDirectory()) {
+            System.err.println("Cannot create work folder: " + work.getAbsolutePath());
+            System.exit(2);
+        }
+        // Run history, tuning and indexes stay with the scenarios instead of the user's own jobs
+        System.setProperty("user.home", work.getAbsolutePath());
+        delete(new File(work, ".filecopier"));
+        System.exit(new ScenarioRunner(work, scale).run(names) ? 0 : 1);
+    }
+}
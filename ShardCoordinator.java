@@ -0,0 +1,437 @@
+package scheduledfilecopier;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Splits a copy job into shards and hands them to ShardWorker processes over a line-based TCP
+// protocol, one request per connection. Workers pull shards, report progress in heartbeats and
+// mark them finished. A worker that stops reporting loses its shard to the others, and an idle
+// worker takes the back half of the largest running shard so stragglers don't hold up the end
+public class ShardCoordinator implements Closeable {
+
+    public static final int DEFAULT_PORT = 47800;
+    public static final long HEARTBEAT_INTERVAL_MS = 2000;
+    public static final long HEARTBEAT_TIMEOUT_MS = 10000;
+    private static final int SHARDS_PER_WORKER = 8;
+    // Per-file overhead counted as bytes, so shards of many small files aren't oversized
+    private static final long FILE_COST_BYTES = 256 * 1024;
+    private static final long MIN_SHARD_COST = 64L * 1024 * 1024;
+
+    private static class Shard {
+        final int id;
+        // Files [start, end) of the job; next is the first file the owner hasn't finished
+        int start;
+        int end;
+        int next;
+        String owner;
+        int requestedCut = -1;
+
+        Shard(int id, int start, int end) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+            this.next = start;
+        }
+    }
+
+    private static class Worker {
+        final String name;
+        long lastSeen;
+        Shard shard;
+        boolean alive = true;
+        boolean released;
+
+        Worker(String name) {
+            this.name = name;
+        }
+    }
+
+    private final String sourcePath;
+    private final String destinationPath;
+    private final Consumer<String> log;
+    // The job's files, kept compact so a plan for tens of millions of files fits in memory
+    private final PathStore paths = new PathStore();
+    private int[] fileIds = new int[1024];
+    private long[] sizes = new long[1024];
+    private int fileCount;
+    private int rootLength;
+    private final Deque<Shard> pending = new ArrayDeque<>();
+    private final Map<Integer, Shard> running = new HashMap<>();
+    private final Map<String, Worker> workers = new HashMap<>();
+    private final ExecutorService handlers = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ShardCoordinator-handler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ShardCoordinator-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerSocket server;
+    private int nextShardId = 1;
+    private int shardCount;
+    private int finishedShards;
+    private int erroredBatches;
+
+    public ShardCoordinator(String sourcePath, String destinationPath, Consumer<String> log) {
+        this.sourcePath = sourcePath;
+        this.destinationPath = destinationPath;
+        this.log = log;
+    }
+
+    // Scans the source and cuts it into shards of roughly equal cost for the expected number of workers
+    public void plan(int expectedWorkers) throws IOException {
+        File source = new File(sourcePath);
+        if (!source.isDirectory()) {
+            throw new IOException("Source folder does not exist: " + sourcePath);
+        }
+
+        String root = source.getAbsolutePath();
+        rootLength = root.endsWith(File.separator) ? root.length() : root.length() + 1;
+        try (DirectoryScanner scanner = new DirectoryScanner(FileCopier.DEFAULT_SCAN_THREADS, () -> false)) {
+            scanner.walk(source, source, (directory, ignored, descend) -> {
+                File[] files = directory.listFiles();
+                if (files == null) return;
+                List<File> regularFiles = new ArrayList<>();
+                for (File file : files) {
+                    if (file.isDirectory()) {
+                        descend.accept(file, file);
+                    } else if (file.isFile()) {
+                        regularFiles.add(file);
+                    }
+                }
+                addFiles(regularFiles);
+            });
+        }
+        paths.forgetDirectories();
+
+        long totalCost = 0;
+        for (int i = 0; i < fileCount; i++) {
+            totalCost += cost(i);
+        }
+        long target = Math.max(MIN_SHARD_COST, totalCost / (Math.max(1, expectedWorkers) * SHARDS_PER_WORKER));
+        int start = 0;
+        long shardCost = 0;
+        for (int i = 0; i < fileCount; i++) {
+            shardCost += cost(i);
+            if (shardCost >= target || i == fileCount - 1) {
+                pending.add(new Shard(nextShardId++, start, i + 1));
+                start = i + 1;
+                shardCost = 0;
+            }
+        }
+        shardCount = pending.size();
+        log.accept("Planned " + shardCount + " shard(s) for " + fileCount + " file(s), "
+            + FileCopier.formatSize(totalCost - fileCount * FILE_COST_BYTES));
+    }
+
+    // A folder's files are added together, so each shard stays within a few folders
+    private synchronized void addFiles(List<File> files) {
+        for (File file : files) {
+            if (fileCount == fileIds.length) {
+                fileIds = Arrays.copyOf(fileIds, fileCount * 2);
+                sizes = Arrays.copyOf(sizes, fileCount * 2);
+            }
+            fileIds[fileCount] = paths.add(file);
+            sizes[fileCount] = file.length();
+            fileCount++;
+        }
+    }
+
+    private String relativePath(int index) {
+        return paths.path(fileIds[index]).substring(rootLength);
+    }
+
+    public void start(InetAddress bindAddress, int port) throws IOException {
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(bindAddress, port));
+        log.accept("Waiting for workers on " + server.getLocalSocketAddress());
+        monitor.scheduleAtFixedRate(this::checkWorkers, 1000, 1000, TimeUnit.MILLISECONDS);
+        handlers.execute(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    handlers.execute(() -> handle(socket));
+                } catch (SocketException e) {
+                    // Closed
+                } catch (IOException e) {
+                    log.accept("Accept failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    // Blocks until every shard is finished and the live workers have been told to stop
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while (!isComplete()) {
+            wait(1000);
+        }
+        long deadline = System.currentTimeMillis() + HEARTBEAT_TIMEOUT_MS;
+        while (!allReleased() && System.currentTimeMillis() < deadline) {
+            wait(500);
+        }
+        log.accept("All " + shardCount + " shard(s) finished"
+            + (erroredBatches > 0 ? "; " + erroredBatches + " batch(es) had errors, see the worker logs" : ""));
+    }
+
+    public synchronized int getErroredBatches() {
+        return erroredBatches;
+    }
+
+    @Override
+    public void close() throws IOException {
+        monitor.shutdownNow();
+        if (server != null) server.close();
+        handlers.shutdownNow();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setSoTimeout((int) HEARTBEAT_TIMEOUT_MS);
+            String request = in.readLine();
+            if (request == null) return;
+            out.write(respond(request.split("\t")));
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            log.accept("Request failed: " + e.getMessage());
+        }
+    }
+
+    private synchronized String respond(String[] request) {
+        String command = request[0];
+        if (request.length < 2) return "ERROR\tmissing worker name\n";
+        String name = request[1];
+
+        if (command.equals("HELLO")) {
+            Worker worker = workers.computeIfAbsent(name, Worker::new);
+            if (!worker.alive) {
+                worker.alive = true;
+                log.accept("Worker " + name + " is back");
+            } else if (worker.lastSeen == 0) {
+                log.accept("Worker " + name + " joined");
+            }
+            worker.lastSeen = System.currentTimeMillis();
+            return "JOB\t" + escape(sourcePath) + "\t" + escape(destinationPath) + "\n";
+        }
+
+        Worker worker = workers.get(name);
+        if (worker == null || !worker.alive) {
+            // Its shard went to someone else; it has to say hello again before taking more work
+            return "GONE\n";
+        }
+        worker.lastSeen = System.currentTimeMillis();
+
+        switch (command) {
+            case "NEXT":
+                return next(worker);
+            case "HEARTBEAT": {
+                Shard shard = ownedShard(worker, request);
+                if (shard == null) return "OK\n";
+                shard.next = Math.max(shard.next, Math.min(shard.end, Integer.parseInt(request[3])));
+                return shard.requestedCut >= 0 ? "CUT\t" + shard.requestedCut + "\n" : "OK\n";
+            }
+            case "CUT": {
+                Shard shard = ownedShard(worker, request);
+                if (shard == null) return "GONE\n";
+                int cut = Integer.parseInt(request[3]);
+                shard.requestedCut = -1;
+                if (cut >= shard.next && cut < shard.end) {
+                    Shard stolen = new Shard(nextShardId++, cut, shard.end);
+                    shard.end = cut;
+                    pending.addFirst(stolen);
+                    shardCount++;
+                    log.accept("Split shard " + shard.id + " at file " + cut + "; shard " + stolen.id
+                        + " takes the remaining " + (stolen.end - stolen.start) + " file(s)");
+                }
+                // The worker keeps going up to wherever its shard now ends
+                return "OK\t" + shard.end + "\n";
+            }
+            case "FINISHED": {
+                Shard shard = ownedShard(worker, request);
+                if (shard == null) return "GONE\n";
+                running.remove(shard.id);
+                worker.shard = null;
+                finishedShards++;
+                int errors = Integer.parseInt(request[3]);
+                erroredBatches += errors;
+                log.accept("Worker " + name + " finished shard " + shard.id + " (" + finishedShards + "/" + shardCount + ")"
+                    + (errors > 0 ? " with " + errors + " failed batch(es)" : ""));
+                notifyAll();
+                return "OK\n";
+            }
+            default:
+                return "ERROR\tunknown command " + command + "\n";
+        }
+    }
+
+    private String next(Worker worker) {
+        if (worker.shard != null) {
+            // It asked for more without finishing, e.g. after a restart; put the rest back
+            requeue(worker.shard);
+            worker.shard = null;
+        }
+        Shard shard = pending.poll();
+        if (shard == null) {
+            if (isComplete()) {
+                worker.released = true;
+                notifyAll();
+                return "DONE\n";
+            }
+            requestSteal();
+            return "WAIT\n";
+        }
+
+        shard.owner = worker.name;
+        shard.requestedCut = -1;
+        running.put(shard.id, shard);
+        worker.shard = shard;
+        StringBuilder reply = new StringBuilder();
+        reply.append("SHARD\t").append(shard.id).append('\t').append(shard.start).append('\t')
+            .append(shard.end - shard.start).append('\n');
+        for (int i = shard.start; i < shard.end; i++) {
+            reply.append(sizes[i]).append('\t').append(escape(relativePath(i))).append('\n');
+        }
+        return reply.toString();
+    }
+
+    private void requestSteal() {
+        // Ask the owner of the shard with the most work left to give up its back half
+        Shard largest = null;
+        long largestCost = 0;
+        for (Shard shard : running.values()) {
+            if (shard.requestedCut >= 0 || shard.end - shard.next < 2) continue;
+            long remaining = cost(shard.next, shard.end);
+            if (remaining > largestCost) {
+                largest = shard;
+                largestCost = remaining;
+            }
+        }
+        if (largest == null) return;
+
+        long half = 0;
+        int cut = largest.next;
+        while (cut < largest.end - 1 && half < largestCost / 2) {
+            half += cost(cut);
+            cut++;
+        }
+        largest.requestedCut = Math.max(cut, largest.next + 1);
+    }
+
+    private void checkWorkers() {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Worker worker : workers.values()) {
+                if (!worker.alive || now - worker.lastSeen < HEARTBEAT_TIMEOUT_MS) continue;
+                worker.alive = false;
+                if (worker.shard != null) {
+                    log.accept("Worker " + worker.name + " stopped responding; reassigning shard " + worker.shard.id);
+                    requeue(worker.shard);
+                    worker.shard = null;
+                } else {
+                    log.accept("Worker " + worker.name + " stopped responding");
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    private void requeue(Shard shard) {
+        running.remove(shard.id);
+        // Files it had already finished stay done
+        shard.start = shard.next;
+        shard.owner = null;
+        shard.requestedCut = -1;
+        if (shard.start < shard.end) {
+            pending.addFirst(shard);
+        } else {
+            finishedShards++;
+        }
+    }
+
+    private Shard ownedShard(Worker worker, String[] request) {
+        if (request.length < 4) return null;
+        Shard shard = running.get(Integer.parseInt(request[2]));
+        return shard != null && worker.name.equals(shard.owner) ? shard : null;
+    }
+
+    private boolean isComplete() {
+        return pending.isEmpty() && running.isEmpty();
+    }
+
+    private boolean allReleased() {
+        for (Worker worker : workers.values()) {
+            if (worker.alive && !worker.released) return false;
+        }
+        return true;
+    }
+
+    private long cost(int index) {
+        return sizes[index] + FILE_COST_BYTES;
+    }
+
+    private long cost(int start, int end) {
+        long total = 0;
+        for (int i = start; i < end; i++) {
+            total += cost(i);
+        }
+        return total;
+    }
+
+    // Paths travel one per line with tab-separated fields
+    public static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    public static String unescape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    // ShardCoordinator <source> <destination> [bind-address:port] [expected-workers]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ShardCoordinator <source> <destination> [bind-address:port] [expected-workers]");
+            System.exit(2);
+        }
+        InetAddress bindAddress = InetAddress.getLoopbackAddress();
+        int port = DEFAULT_PORT;
+        if (args.length > 2) {
+            int colon = args[2].lastIndexOf(':');
+            if (colon > 0) bindAddress = InetAddress.getByName(args[2].substring(0, colon));
+            port = Integer.parseInt(args[2].substring(colon + 1));
+        }
+        int expectedWorkers = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+        try (ShardCoordinator coordinator = new ShardCoordinator(args[0], args[1],
+                message -> System.out.println(new java.text.SimpleDateFormat("HH:mm:ss").format(new Date()) + " " + message))) {
+            coordinator.plan(expectedWorkers);
+            coordinator.start(bindAddress, port);
+            coordinator.awaitCompletion();
+            System.exit(coordinator.getErroredBatches() > 0 ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package scheduledfilecopier;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Copies shards handed out by a ShardCoordinator. A shard is copied in batches through a
+// FileCopier, and between batches the worker can give the rest of it to an idle worker
+public class ShardWorker {
+
+    private static final int BATCH_FILES = 256;
+    private static final long BATCH_BYTES = 256L * 1024 * 1024;
+    private static final long WAIT_MS = 500;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int CONNECT_ATTEMPTS = 3;
+
+    private final String host;
+    private final int port;
+    private final String name;
+    private final int threadCount;
+    private final Consumer<String> log;
+    private String sourcePath;
+    private String destinationPath;
+    private volatile int shardId = -1;
+    private volatile int position;
+    private volatile int requestedCut = -1;
+    private volatile boolean gone;
+    private volatile FileCopier copier;
+
+    public ShardWorker(String host, int port, String name, int threadCount, Consumer<String> log) {
+        this.host = host;
+        this.port = port;
+        this.name = name;
+        this.threadCount = threadCount;
+        this.log = log;
+    }
+
+    public void run() throws IOException, InterruptedException {
+        hello();
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ShardWorker-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(this::heartbeat, ShardCoordinator.HEARTBEAT_INTERVAL_MS,
+            ShardCoordinator.HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        try {
+            while (true) {
+                List<String> reply = request("NEXT\t" + name);
+                String[] head = reply.get(0).split("\t");
+                switch (head[0]) {
+                    case "DONE":
+                        log.accept("No shards left");
+                        return;
+                    case "WAIT":
+                        Thread.sleep(WAIT_MS);
+                        break;
+                    case "GONE":
+                        hello();
+                        break;
+                    case "SHARD":
+                        copyShard(Integer.parseInt(head[1]), Integer.parseInt(head[2]), reply.subList(1, reply.size()));
+                        break;
+                    default:
+                        throw new IOException("Unexpected reply from coordinator: " + reply.get(0));
+                }
+            }
+        } finally {
+            heartbeat.shutdownNow();
+        }
+    }
+
+    private void hello() throws IOException {
+        String[] job = request("HELLO\t" + name).get(0).split("\t");
+        if (!job[0].equals("JOB") || job.length < 3) {
+            throw new IOException("Unexpected reply from coordinator: " + String.join(" ", job));
+        }
+        sourcePath = ShardCoordinator.unescape(job[1]);
+        destinationPath = ShardCoordinator.unescape(job[2]);
+        log.accept("Copying " + sourcePath + " -> " + destinationPath + " for " + host + ":" + port);
+    }
+
+    private void copyShard(int id, int start, List<String> entries) throws IOException {
+        List<String> paths = new ArrayList<>(entries.size());
+        long[] sizes = new long[entries.size()];
+        for (String entry : entries) {
+            int tab = entry.indexOf('\t');
+            sizes[paths.size()] = Long.parseLong(entry.substring(0, tab));
+            paths.add(ShardCoordinator.unescape(entry.substring(tab + 1)));
+        }
+        log.accept("Starting shard " + id + " (" + paths.size() + " file(s))");
+
+        requestedCut = -1;
+        gone = false;
+        position = start;
+        shardId = id;
+        int end = start + paths.size();
+        int errors = 0;
+        try {
+            while (position < end && !gone) {
+                int cut = requestedCut;
+                if (cut >= 0) {
+                    // Hand the back of the shard over; files already copied stay with us
+                    requestedCut = -1;
+                    String[] reply = request("CUT\t" + name + "\t" + id + "\t" + Math.max(cut, position)).get(0).split("\t");
+                    if (reply[0].equals("GONE")) {
+                        gone = true;
+                    } else if (reply.length > 1 && Integer.parseInt(reply[1]) < end) {
+                        end = Integer.parseInt(reply[1]);
+                        log.accept("Gave the rest of shard " + id + " to another worker, stopping at file " + end);
+                    }
+                    continue;
+                }
+
+                int batchEnd = position;
+                long batchBytes = 0;
+                while (batchEnd < end && batchEnd - position < BATCH_FILES && batchBytes < BATCH_BYTES) {
+                    batchBytes += sizes[batchEnd - start];
+                    batchEnd++;
+                }
+                if (!copyBatch(paths.subList(position - start, batchEnd - start))) {
+                    errors++;
+                }
+                position = batchEnd;
+            }
+
+            if (gone) {
+                log.accept("Shard " + id + " was reassigned while this worker was unresponsive");
+            } else {
+                request("FINISHED\t" + name + "\t" + id + "\t" + errors);
+            }
+        } finally {
+            shardId = -1;
+        }
+    }
+
+    private boolean copyBatch(List<String> batch) {
+        FileCopier batchCopier = new FileCopier(sourcePath, destinationPath, false, false, false,
+            null, null, new FileCopier.ProgressUpdater() {
+                @Override
+                public void updateProgress(String currentFile, int percentage, long bytesCopied, long totalBytes) {
+                }
+
+                @Override
+                public void logMessage(String message) {
+                    log.accept(message);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return gone;
+                }
+            });
+        batchCopier.setThreadCount(threadCount);
+        batchCopier.setFileList(new ArrayList<>(batch));
+        copier = batchCopier;
+        try {
+            batchCopier.startCopy();
+            return true;
+        } catch (IOException e) {
+            log.accept("Batch failed: " + e.getMessage());
+            return false;
+        } finally {
+            copier = null;
+        }
+    }
+
+    private void heartbeat() {
+        int id = shardId;
+        if (id < 0) return;
+        try {
+            String[] reply = request("HEARTBEAT\t" + name + "\t" + id + "\t" + position).get(0).split("\t");
+            if (reply[0].equals("CUT") && id == shardId) {
+                requestedCut = Integer.parseInt(reply[1]);
+            } else if (reply[0].equals("GONE")) {
+                // The coordinator gave our shard away; stop copying files someone else now owns
+                gone = true;
+                FileCopier current = copier;
+                if (current != null) current.cancelCopy();
+            }
+        } catch (IOException e) {
+            log.accept("Heartbeat failed: " + e.getMessage());
+        }
+    }
+
+    private List<String> request(String line) throws IOException {
+        IOException lastFailure = null;
+        for (int attempt = 1; attempt <= CONNECT_ATTEMPTS; attempt++) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                socket.setSoTimeout((int) ShardCoordinator.HEARTBEAT_TIMEOUT_MS);
+                Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                out.write(line + "\n");
+                out.flush();
+
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                List<String> reply = new ArrayList<>();
+                String replyLine;
+                while ((replyLine = in.readLine()) != null) {
+                    reply.add(replyLine);
+                }
+                if (reply.isEmpty()) {
+                    throw new IOException("Empty reply from coordinator");
+                }
+                return reply;
+            } catch (IOException e) {
+                lastFailure = e;
+                try {
+                    Thread.sleep(WAIT_MS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while contacting the coordinator");
+                }
+            }
+        }
+        throw new IOException("Coordinator at " + host + ":" + port + " is not reachable: " + lastFailure.getMessage(), lastFailure);
+    }
+
+    // ShardWorker <coordinator-host:port> [threads]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ShardWorker <coordinator-host:port> [threads]");
+            System.exit(2);
+        }
+        int colon = args[0].lastIndexOf(':');
+        String host = colon > 0 ? args[0].substring(0, colon) : args[0];
+        int port = colon > 0 ? Integer.parseInt(args[0].substring(colon + 1)) : ShardCoordinator.DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : FileCopier.DEFAULT_THREAD_COUNT;
+        String name = InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+
+        new ShardWorker(host, port, name, threads,
+            message -> System.out.println(new java.text.SimpleDateFormat("HH:mm:ss").format(new Date())
+                + " [" + name + "] " + message)).run();
+    }
+}
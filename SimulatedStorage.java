@@ -0,0 +1,147 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A copy strategy that behaves like slow or unreliable storage between source and destination:
+// a round trip per open and per request, a link shared by all workers, a destination that fills
+// up, files that stay locked for a number of attempts, sources that change while being read and
+// random I/O errors. Registered under NAME and reached with the copy rule "-> simulated"
+public class SimulatedStorage implements CopyStrategy {
+
+    public static final String NAME = "simulated";
+    public static final int REQUEST_SIZE = 1024 * 1024;
+
+    private long latencyMillis;
+    private long bandwidth;
+    private long capacity = Long.MAX_VALUE;
+    private double errorRate;
+    private Random random = new Random(1);
+    private final Map<String, AtomicInteger> lockedFiles = new ConcurrentHashMap<>();
+    private final Set<String> changingFiles = ConcurrentHashMap.newKeySet();
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicInteger injectedFaults = new AtomicInteger();
+    private long linkFreeAt;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    public void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    // Bytes per second over all workers together; 0 for no limit
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    // Bytes the destination takes before reporting that it is full
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+        used.set(0);
+    }
+
+    public void setErrorRate(double errorRate, long seed) {
+        this.errorRate = errorRate;
+        this.random = new Random(seed);
+    }
+
+    // The file's next copies fail as if another program held it open
+    public void lockFile(String name, int attempts) {
+        lockedFiles.put(name, new AtomicInteger(attempts));
+    }
+
+    // The file's source grows after the first request of its next copy
+    public void changeDuringCopy(String name) {
+        changingFiles.add(name);
+    }
+
+    public int getInjectedFaults() {
+        return injectedFaults.get();
+    }
+
+    @Override
+    public void copy(File source, File dest) throws IOException {
+        roundTrip();
+        AtomicInteger locked = lockedFiles.get(source.getName());
+        if (locked != null && locked.getAndDecrement() > 0) {
+            injectedFaults.incrementAndGet();
+            throw new IOException("The process cannot access the file because it is being used by another process: "
+                + source.getAbsolutePath());
+        }
+        injectError(source);
+        // Rewriting a file gives its old space back
+        if (dest.isFile()) used.addAndGet(-dest.length());
+
+        byte[] buffer = new byte[REQUEST_SIZE];
+        try (FileInputStream in = new FileInputStream(source);
+             FileOutputStream out = new FileOutputStream(dest)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                transfer(read);
+                if (used.addAndGet(read) > capacity) {
+                    used.addAndGet(-read);
+                    injectedFaults.incrementAndGet();
+                    throw new IOException("No space left on device: " + dest.getAbsolutePath());
+                }
+                out.write(buffer, 0, read);
+                if (changingFiles.remove(source.getName())) {
+                    try (FileOutputStream append = new FileOutputStream(source, true)) {
+                        append.write(buffer, 0, Math.min(read, 4096));
+                    }
+                    injectedFaults.incrementAndGet();
+                }
+                roundTrip();
+            }
+        }
+    }
+
+    private void injectError(File source) throws IOException {
+        if (errorRate <= 0) return;
+        boolean fail;
+        synchronized (random) {
+            fail = random.nextDouble() < errorRate;
+        }
+        if (fail) {
+            injectedFaults.incrementAndGet();
+            throw new IOException("Simulated I/O error reading " + source.getAbsolutePath());
+        }
+    }
+
+    private void roundTrip() throws IOException {
+        if (latencyMillis > 0) pause(latencyMillis * 1_000_000L);
+    }
+
+    // Requests queue for the link one after another, like a single network connection
+    private void transfer(long bytes) throws IOException {
+        if (bandwidth <= 0) return;
+        long done;
+        synchronized (this) {
+            long now = System.nanoTime();
+            linkFreeAt = Math.max(linkFreeAt, now) + bytes * 1_000_000_000L / bandwidth;
+            done = linkFreeAt;
+        }
+        pause(done - System.nanoTime());
+    }
+
+    private static void pause(long nanos) throws IOException {
+        if (nanos <= 0) return;
+        try {
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Copy cancelled");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package scheduledfilecopier;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+// Makes a frozen, read-only view of the source for the length of a run, so busy files are copied
+// as they were at one instant without lock probes, retries or closing the programs that hold them
+public interface SnapshotProvider {
+
+    String AUTO = "auto";
+    // Where providers that snapshot in place keep their snapshots; never copied
+    String SNAPSHOT_FOLDER = ".filecopier-snapshots";
+
+    String name();
+
+    boolean supports(File source);
+
+    // Commands run through the job's control, so a cancel kills them
+    Snapshot create(File source, JobControl control) throws IOException;
+
+    interface Snapshot extends Closeable {
+        // The source as it appears inside the snapshot
+        File root();
+    }
+
+    static List<SnapshotProvider> all() {
+        return Arrays.asList(new VssSnapshotProvider(), new BtrfsSnapshotProvider(),
+            new LvmSnapshotProvider(), new LinkFarmSnapshotProvider());
+    }
+
+    // The named provider, or for "auto" the first real snapshot provider that supports the source
+    static SnapshotProvider select(String name, File source) {
+        for (SnapshotProvider provider : all()) {
+            boolean candidate = AUTO.equals(name)
+                ? !(provider instanceof LinkFarmSnapshotProvider)
+                : provider.name().equals(name);
+            if (candidate && provider.supports(source)) {
+                return provider;
+            }
+        }
+        return null;
+    }
+
+    static String snapshotName() {
+        return "filecopier-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+    }
+
+    // Runs a command to completion and returns its output; a non-zero exit is an IOException.
+    // Cleanup goes through here too, and has to finish even after the job was cancelled
+    static String run(String... command) throws IOException {
+        return run(new JobControl(), command);
+    }
+
+    static String run(JobControl control, String... command) throws IOException {
+        Process process = control.track(new ProcessBuilder(command).redirectErrorStream(true).start());
+        String output;
+        try (InputStream in = process.getInputStream()) {
+            output = new String(in.readAllBytes(), Charset.defaultCharset()).trim();
+        }
+        int exitCode = control.waitFor(process);
+        if (control.isCancelled()) {
+            throw new InterruptedIOException(command[0] + " was cancelled");
+        }
+        if (exitCode != 0) {
+            throw new IOException(command[0] + " failed (exit code " + exitCode + ")"
+                + (output.isEmpty() ? "" : ": " + output));
+        }
+        return output;
+    }
+}
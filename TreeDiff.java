@@ -0,0 +1,124 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+public class TreeDiff {
+
+    public enum Action { ADD, UPDATE, DELETE }
+
+    // Called concurrently from scanner threads. A DELETE carries the replacing source when a
+    // file and a directory swap places, since the new entry cannot be written until it is gone
+    public interface Listener {
+        void directory(File sourceDir, File destDir) throws IOException;
+        void action(Action action, File source, File dest) throws IOException;
+
+        default void unchanged(File source, File dest) throws IOException {
+        }
+
+        // The source folder could not be listed, so nothing under it is added or deleted
+        default void unreadable(File sourceDir) {
+        }
+    }
+
+    private final DirectoryScanner scanner;
+    private final Predicate<File> excludedSource;
+    private final Predicate<File> protectedDest;
+    private final BooleanSupplier cancelled;
+    private final Comparator<String> nameOrder;
+
+    public TreeDiff(DirectoryScanner scanner, Predicate<File> excludedSource,
+                    Predicate<File> protectedDest, BooleanSupplier cancelled) {
+        this.scanner = scanner;
+        this.excludedSource = excludedSource;
+        this.protectedDest = protectedDest;
+        this.cancelled = cancelled;
+        // Windows file systems are case-insensitive, so "A.txt" and "a.txt" are the same entry
+        this.nameOrder = System.getProperty("os.name").toLowerCase().contains("win")
+            ? String.CASE_INSENSITIVE_ORDER
+            : Comparator.naturalOrder();
+    }
+
+    public void diff(File sourceRoot, File destRoot, Listener listener) throws IOException {
+        // Only the listings of directories currently being merged are held,
+        // so memory follows directory fan-out instead of total tree size
+        scanner.walk(sourceRoot, destRoot, (sourceDir, destDir, descend) -> {
+            File[] sourceEntries = sortedListing(sourceDir);
+            if (sourceEntries == null) {
+                // A failed listing is not an empty folder; treating it as one would delete the copy
+                listener.unreadable(sourceDir);
+                return;
+            }
+            listener.directory(sourceDir, destDir);
+
+            File[] destEntries = sortedListing(destDir);
+            if (destEntries == null) destEntries = new File[0];
+            int s = 0;
+            int d = 0;
+
+            while ((s < sourceEntries.length || d < destEntries.length) && !cancelled.getAsBoolean()) {
+                int order;
+                if (s >= sourceEntries.length) {
+                    order = 1;
+                } else if (d >= destEntries.length) {
+                    order = -1;
+                } else {
+                    order = nameOrder.compare(sourceEntries[s].getName(), destEntries[d].getName());
+                }
+
+                if (order < 0) {
+                    File source = sourceEntries[s++];
+                    if (excludedSource.test(source)) continue;
+                    File dest = new File(destDir, source.getName());
+                    if (source.isDirectory()) {
+                        descend.accept(source, dest);
+                    } else {
+                        listener.action(Action.ADD, source, dest);
+                    }
+                } else if (order > 0) {
+                    File dest = destEntries[d++];
+                    if (!protectedDest.test(dest)) {
+                        listener.action(Action.DELETE, null, dest);
+                    }
+                } else {
+                    File source = sourceEntries[s++];
+                    File dest = destEntries[d++];
+                    if (excludedSource.test(source)) continue;
+                    compareEntries(source, dest, descend, listener);
+                }
+            }
+        });
+    }
+
+    private void compareEntries(File source, File dest, BiConsumer<File, File> descend,
+                                Listener listener) throws IOException {
+        if (source.isDirectory()) {
+            if (!dest.isDirectory()) {
+                listener.action(Action.DELETE, source, dest);
+            }
+            descend.accept(source, dest);
+        } else if (dest.isDirectory()) {
+            listener.action(Action.DELETE, source, dest);
+            listener.action(Action.ADD, source, dest);
+        } else if (source.length() != dest.length()
+                || Math.abs(source.lastModified() - dest.lastModified()) >= MetadataSync.MTIME_TOLERANCE_MS) {
+            // Any difference counts: a copy cut short can be full size with a newer mtime
+            listener.action(Action.UPDATE, source, dest);
+        } else {
+            listener.unchanged(source, dest);
+        }
+    }
+
+    // Null when the directory cannot be listed
+    private File[] sortedListing(File directory) {
+        File[] entries = directory.listFiles();
+        if (entries == null) return null;
+        Arrays.sort(entries, (a, b) -> nameOrder.compare(a.getName(), b.getName()));
+        return entries;
+    }
+}
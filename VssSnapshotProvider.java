@@ -0,0 +1,85 @@
+package scheduledfilecopier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Volume Shadow Copy of the drive holding the source, reached through a folder link to the shadow
+// device. Needs administrator rights
+public class VssSnapshotProvider implements SnapshotProvider {
+
+    @Override
+    public String name() {
+        return "vss";
+    }
+
+    @Override
+    public boolean supports(File source) {
+        if (!System.getProperty("os.name").toLowerCase().contains("win")) return false;
+        if (driveOf(source) == null) return false;
+        try {
+            SnapshotProvider.run("cmd", "/c", "net", "session");
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Snapshot create(File source, JobControl control) throws IOException {
+        String drive = driveOf(source);
+        if (drive == null) {
+            throw new IOException("Shadow copies need a drive letter: " + source.getAbsolutePath());
+        }
+        String[] created = SnapshotProvider.run(control, "powershell", "-NoProfile", "-Command",
+            "$r = (Get-WmiObject -List Win32_ShadowCopy).Create('" + drive + "', 'ClientAccessible'); "
+            + "if ($r.ReturnValue -ne 0) { exit $r.ReturnValue }; "
+            + "$s = Get-WmiObject Win32_ShadowCopy | Where-Object { $_.ID -eq $r.ShadowID }; "
+            + "Write-Output $s.ID; Write-Output $s.DeviceObject").split("\\r?\\n");
+        if (created.length < 2) {
+            throw new IOException("Shadow copy was created but could not be found");
+        }
+        String id = created[0].trim();
+        String device = created[1].trim();
+
+        // The shadow device has no drive letter, so it is opened through a folder link
+        Path linkParent = Files.createTempDirectory("filecopier-vss");
+        Path link = linkParent.resolve("shadow");
+        try {
+            SnapshotProvider.run(control, "cmd", "/c", "mklink", "/d", link.toString(), device + "\\");
+        } catch (IOException e) {
+            deleteShadow(id);
+            Files.deleteIfExists(linkParent);
+            throw e;
+        }
+
+        File root = new File(link.toFile(), source.getAbsolutePath().substring(drive.length()));
+        return new Snapshot() {
+            @Override
+            public File root() {
+                return root;
+            }
+
+            @Override
+            public void close() throws IOException {
+                // rmdir removes the link, not the files behind it
+                SnapshotProvider.run("cmd", "/c", "rmdir", link.toString());
+                Files.deleteIfExists(linkParent);
+                deleteShadow(id);
+            }
+        };
+    }
+
+    private static void deleteShadow(String id) throws IOException {
+        SnapshotProvider.run("vssadmin", "delete", "shadows", "/shadow=" + id, "/quiet");
+    }
+
+    // "C:\" for a path on drive C, or null for network paths
+    private static String driveOf(File source) {
+        String path = source.getAbsolutePath();
+        return path.length() >= 3 && path.charAt(1) == ':' && path.charAt(2) == '\\'
+            ? path.substring(0, 3)
+            : null;
+    }
+}